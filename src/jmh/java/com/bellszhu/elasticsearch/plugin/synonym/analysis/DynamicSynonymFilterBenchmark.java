@@ -0,0 +1,73 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input tokens per second through {@link DynamicSynonymFilter} and
+ * {@link DynamicSynonymGraphFilter}, by dictionary size, share of tokens that
+ * start a rule and FST storage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DynamicSynonymFilterBenchmark {
+
+    private static final int TOKENS = 1000;
+    private static final int TEXTS = 16;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rules;
+
+    @Param({"0.01", "0.1", "0.5"})
+    public double density;
+
+    @Param({"plain", "graph"})
+    public String filter;
+
+    @Param({"heap", "mmap"})
+    public String storage;
+
+    private Tokenizer tokenizer;
+    private TokenStream stream;
+    private String[] texts;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        SynonymMapHolder holder = new SynonymMapHolder();
+        holder.publish(SynonymBenchmarks.compile(SynonymBenchmarks.buildMap(rules), storage));
+        tokenizer = SynonymBenchmarks.tokenizer();
+        stream = SynonymBenchmarks.filter(tokenizer, holder, filter);
+        texts = new String[TEXTS];
+        for (int i = 0; i < TEXTS; i++) {
+            texts[i] = SynonymBenchmarks.text(TOKENS, rules, density, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS)
+    public int analyze() throws IOException {
+        next = (next + 1) % TEXTS;
+        return SynonymBenchmarks.analyze(tokenizer, stream, texts[next]);
+    }
+}
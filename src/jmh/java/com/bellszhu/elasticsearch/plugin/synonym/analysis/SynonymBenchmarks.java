@@ -0,0 +1,146 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.apache.lucene.util.fst.FST;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Synthetic dictionaries and input shared by the benchmarks.
+ * <p>
+ * Rule {@code i} maps {@code w<i>} to {@code s<i>}; every tenth rule also maps
+ * the two word phrase {@code w<i> w<i+1>} to {@code m<i>}, so the filters have
+ * to look ahead.
+ */
+final class SynonymBenchmarks {
+
+    private SynonymBenchmarks() {
+    }
+
+    static SynonymMap buildMap(int rules) throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        CharsRefBuilder scratch = new CharsRefBuilder();
+        for (int i = 0; i < rules; i++) {
+            builder.add(new CharsRef("w" + i), new CharsRef("s" + i), true);
+            if (i % 10 == 0) {
+                CharsRef phrase = SynonymMap.Builder.join(new String[]{"w" + i, "w" + (i + 1)}, scratch);
+                builder.add(phrase, new CharsRef("m" + i), true);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param storage {@code heap}, or {@code mmap} to walk a memory mapped copy
+     */
+    static CompiledSynonymMap compile(SynonymMap map, String storage) throws IOException {
+        if (!"mmap".equals(storage)) {
+            return new CompiledSynonymMap(map, new SynonymFst.Heap(map.fst));
+        }
+        Path path = Files.createTempFile("synonym-bench", ".fst");
+        path.toFile().deleteOnExit();
+        map.fst.save(path);
+        long startNode = map.fst.getFirstArc(new FST.Arc<>()).target;
+        MappedSynonymFst mapped = MappedSynonymFst.open(path, startNode, true);
+        return new CompiledSynonymMap(new SynonymMap(null, map.words, map.maxHorizontalContext), mapped,
+                FirstTermFilter.build(map.fst));
+    }
+
+    /**
+     * Whitespace separated text in which roughly {@code density} of the tokens
+     * start a rule.
+     */
+    static String text(int tokens, int rules, double density, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tokens; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            if (random.nextDouble() < density) {
+                sb.append('w').append(random.nextInt(rules));
+            } else {
+                sb.append('x').append(random.nextInt(rules));
+            }
+        }
+        return sb.toString();
+    }
+
+    static Analyzer whitespaceAnalyzer() {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                return new TokenStreamComponents(new WhitespaceTokenizer());
+            }
+        };
+    }
+
+    static Tokenizer tokenizer() {
+        return new WhitespaceTokenizer();
+    }
+
+    static TokenStream filter(Tokenizer tokenizer, SynonymMapHolder holder, String filter) {
+        return "graph".equals(filter)
+                ? new DynamicSynonymGraphFilter(tokenizer, holder, new SynonymStats(), false)
+                : new DynamicSynonymFilter(tokenizer, holder, new SynonymStats(), false);
+    }
+
+    /**
+     * Runs the text through a reused stream and returns the number of tokens out.
+     */
+    static int analyze(Tokenizer tokenizer, TokenStream stream, String text) throws IOException {
+        tokenizer.setReader(new StringReader(text));
+        stream.reset();
+        int count = 0;
+        while (stream.incrementToken()) {
+            count++;
+        }
+        stream.end();
+        stream.close();
+        return count;
+    }
+
+    /**
+     * Generates solr format rules as they are read, without holding them in memory.
+     */
+    static Reader solrRules(int rules) {
+        return new Reader() {
+            private int next;
+            private String line = "";
+            private int pos;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                if (pos == line.length()) {
+                    if (next == rules) {
+                        return -1;
+                    }
+                    int i = next++;
+                    line = i % 10 == 0
+                            ? "w" + i + ",s" + i + "\nw" + i + " w" + (i + 1) + ",m" + i + "\n"
+                            : "w" + i + ",s" + i + "\n";
+                    pos = 0;
+                }
+                int count = Math.min(len, line.length() - pos);
+                line.getChars(pos, pos + count, cbuf, off);
+                pos += count;
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.elasticsearch.index.analysis.ESSolrSynonymParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to parse solr format rules and build the FST, the CPU part of every
+ * reload. Fetching the rules from a database or url is not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SynonymMapBuildBenchmark {
+
+    @Param({"10000", "100000", "1000000", "5000000"})
+    public int rules;
+
+    private Analyzer analyzer;
+
+    @Setup
+    public void setup() {
+        analyzer = SynonymBenchmarks.whitespaceAnalyzer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        analyzer.close();
+    }
+
+    @Benchmark
+    public SynonymMap build() throws Exception {
+        ESSolrSynonymParser parser = new ESSolrSynonymParser(true, true, false, analyzer);
+        parser.parse(SynonymBenchmarks.solrRules(rules));
+        return parser.build();
+    }
+
+    @Benchmark
+    public SynonymMap buildParallel() throws Exception {
+        ESSolrSynonymParser parser = new ESSolrSynonymParser(true, true, false, analyzer);
+        ParallelSynonymParser.parse(SynonymBenchmarks.solrRules(rules), parser, true, false, analyzer);
+        return parser.build();
+    }
+}
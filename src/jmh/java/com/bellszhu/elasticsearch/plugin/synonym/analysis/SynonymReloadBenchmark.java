@@ -0,0 +1,81 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of analysis while maps are rebuilt and published concurrently:
+ * three threads analyze through filters bound to one holder while a fourth
+ * keeps rebuilding the map and swapping it in, as the source monitor does.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SynonymReloadBenchmark {
+
+    private static final int TOKENS = 1000;
+
+    @State(Scope.Group)
+    public static class Published {
+
+        @Param({"10000", "100000"})
+        public int rules;
+
+        @Param({"plain", "graph"})
+        public String filter;
+
+        final SynonymMapHolder holder = new SynonymMapHolder();
+
+        @Setup
+        public void setup() throws IOException {
+            holder.publish(SynonymBenchmarks.compile(SynonymBenchmarks.buildMap(rules), "heap"));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Analysis {
+
+        Tokenizer tokenizer;
+        TokenStream stream;
+        String text;
+
+        @Setup
+        public void setup(Published published) {
+            tokenizer = SynonymBenchmarks.tokenizer();
+            stream = SynonymBenchmarks.filter(tokenizer, published.holder, published.filter);
+            text = SynonymBenchmarks.text(TOKENS, published.rules, 0.1, Thread.currentThread().getId());
+        }
+    }
+
+    @Benchmark
+    @Group("reload")
+    @GroupThreads(3)
+    public int analyze(Analysis analysis) throws IOException {
+        return SynonymBenchmarks.analyze(analysis.tokenizer, analysis.stream, analysis.text);
+    }
+
+    @Benchmark
+    @Group("reload")
+    @GroupThreads(1)
+    public void rebuild(Published published) throws IOException {
+        published.holder.publish(SynonymBenchmarks.compile(SynonymBenchmarks.buildMap(published.rules), "heap"));
+    }
+}
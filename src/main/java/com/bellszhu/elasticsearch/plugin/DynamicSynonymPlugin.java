@@ -3,23 +3,41 @@
  */
 package com.bellszhu.elasticsearch.plugin;
 
+import com.bellszhu.elasticsearch.plugin.action.DynamicSynonymReloadAction;
+import com.bellszhu.elasticsearch.plugin.action.DynamicSynonymStatsAction;
+import com.bellszhu.elasticsearch.plugin.action.TransportDynamicSynonymReloadAction;
+import com.bellszhu.elasticsearch.plugin.action.TransportDynamicSynonymStatsAction;
 import com.bellszhu.elasticsearch.plugin.synonym.analysis.DynamicSynonymGraphTokenFilterFactory;
 import com.bellszhu.elasticsearch.plugin.synonym.analysis.DynamicSynonymTokenFilterFactory;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.index.IndexModule;
 import org.elasticsearch.index.analysis.TokenFilterFactory;
 import org.elasticsearch.indices.analysis.AnalysisModule;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.AnalysisPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 import static org.elasticsearch.plugins.AnalysisPlugin.requiresAnalysisSettings;
 
 
 /**
  * @author bellszhu
  */
-public class DynamicSynonymPlugin extends Plugin implements AnalysisPlugin {
+public class DynamicSynonymPlugin extends Plugin implements AnalysisPlugin, ActionPlugin {
 
     @Override
     public Map<String, AnalysisModule.AnalysisProvider<TokenFilterFactory>> getTokenFilters() {
@@ -34,4 +52,23 @@ public class DynamicSynonymPlugin extends Plugin implements AnalysisPlugin {
         super.onIndexModule(indexModule);
         indexModule.addIndexEventListener(new DynamicSynonymIndexEventListener());
     }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return Arrays.asList(
+                new ActionHandler<>(DynamicSynonymReloadAction.INSTANCE, TransportDynamicSynonymReloadAction.class),
+                new ActionHandler<>(DynamicSynonymStatsAction.INSTANCE, TransportDynamicSynonymStatsAction.class));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController,
+                                             ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings,
+                                             SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Arrays.asList(
+                new RestDynamicSynonymStatsAction(settings, restController),
+                new RestDynamicSynonymReloadAction(settings, restController));
+    }
 }
@@ -0,0 +1,43 @@
+package com.bellszhu.elasticsearch.plugin;
+
+import com.bellszhu.elasticsearch.plugin.action.DynamicSynonymReloadAction;
+import com.bellszhu.elasticsearch.plugin.action.DynamicSynonymReloadRequest;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+/**
+ * POST _dynamic_synonym/_reload, POST {index}/_dynamic_synonym/_reload
+ * <p>
+ * Rebuilds the matching synonym maps on every node (or the nodes given by
+ * {@code nodes}) immediately. Optional parameters {@code filter} and
+ * {@code source} narrow the selection to a filter name or a synonym source.
+ */
+public class RestDynamicSynonymReloadAction extends BaseRestHandler {
+
+    public RestDynamicSynonymReloadAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.POST, "/_dynamic_synonym/_reload", this);
+        controller.registerHandler(RestRequest.Method.POST, "/{index}/_dynamic_synonym/_reload", this);
+    }
+
+    @Override
+    public String getName() {
+        return "dynamic_synonym_reload_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        String[] nodesIds = Strings.splitStringByCommaToArray(request.param("nodes"));
+        DynamicSynonymReloadRequest reloadRequest = new DynamicSynonymReloadRequest(nodesIds)
+                .index(request.param("index"))
+                .filter(request.param("filter"))
+                .source(request.param("source"));
+        return channel -> client.execute(DynamicSynonymReloadAction.INSTANCE, reloadRequest,
+                new RestActions.NodesResponseRestListener<>(channel));
+    }
+}
@@ -0,0 +1,40 @@
+package com.bellszhu.elasticsearch.plugin;
+
+import com.bellszhu.elasticsearch.plugin.action.DynamicSynonymStatsAction;
+import com.bellszhu.elasticsearch.plugin.action.DynamicSynonymStatsRequest;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+/**
+ * GET _dynamic_synonym/stats
+ * <p>
+ * Synonym maps loaded on every node (or the nodes given by {@code nodes}), with
+ * the index and filter names using them, rule and FST sizes, reload and poll
+ * timings and the tokens and synonym hits seen by their filters, in one section
+ * per node.
+ */
+public class RestDynamicSynonymStatsAction extends BaseRestHandler {
+
+    public RestDynamicSynonymStatsAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.GET, "/_dynamic_synonym/stats", this);
+    }
+
+    @Override
+    public String getName() {
+        return "dynamic_synonym_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        String[] nodesIds = Strings.splitStringByCommaToArray(request.param("nodes"));
+        DynamicSynonymStatsRequest statsRequest = new DynamicSynonymStatsRequest(nodesIds);
+        return channel -> client.execute(DynamicSynonymStatsAction.INSTANCE, statsRequest,
+                new RestActions.NodesResponseRestListener<>(channel));
+    }
+}
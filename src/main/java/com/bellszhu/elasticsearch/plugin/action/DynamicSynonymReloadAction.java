@@ -0,0 +1,28 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Rebuilds synonym maps on every node right away instead of at the next poll.
+ */
+public class DynamicSynonymReloadAction extends Action<DynamicSynonymReloadRequest,
+        DynamicSynonymReloadResponse, DynamicSynonymReloadRequestBuilder> {
+
+    public static final DynamicSynonymReloadAction INSTANCE = new DynamicSynonymReloadAction();
+    public static final String NAME = "cluster:admin/dynamic_synonym/reload";
+
+    private DynamicSynonymReloadAction() {
+        super(NAME);
+    }
+
+    @Override
+    public DynamicSynonymReloadRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new DynamicSynonymReloadRequestBuilder(client, this);
+    }
+
+    @Override
+    public DynamicSynonymReloadResponse newResponse() {
+        return new DynamicSynonymReloadResponse();
+    }
+}
@@ -0,0 +1,69 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+/**
+ * Selects the synonym maps to reload: those used by an index, by a filter name,
+ * or built from a source. Unset criteria match everything.
+ */
+public class DynamicSynonymReloadRequest extends BaseNodesRequest<DynamicSynonymReloadRequest> {
+
+    private String index;
+    private String filter;
+    private String source;
+
+    public DynamicSynonymReloadRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+
+    public String index() {
+        return index;
+    }
+
+    public DynamicSynonymReloadRequest index(String index) {
+        this.index = index;
+        return this;
+    }
+
+    public String filter() {
+        return filter;
+    }
+
+    public DynamicSynonymReloadRequest filter(String filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * Part of the source: a {@code synonyms_path}, or a {@code db_url}
+     * optionally followed by {@code |db_user|db_table|dic_type|dic_style}.
+     */
+    public String source() {
+        return source;
+    }
+
+    public DynamicSynonymReloadRequest source(String source) {
+        this.source = source;
+        return this;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        index = in.readOptionalString();
+        filter = in.readOptionalString();
+        source = in.readOptionalString();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeOptionalString(index);
+        out.writeOptionalString(filter);
+        out.writeOptionalString(source);
+    }
+}
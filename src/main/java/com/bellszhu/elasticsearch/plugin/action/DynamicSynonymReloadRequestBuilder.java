@@ -0,0 +1,27 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class DynamicSynonymReloadRequestBuilder extends NodesOperationRequestBuilder<DynamicSynonymReloadRequest,
+        DynamicSynonymReloadResponse, DynamicSynonymReloadRequestBuilder> {
+
+    public DynamicSynonymReloadRequestBuilder(ElasticsearchClient client, DynamicSynonymReloadAction action) {
+        super(client, action, new DynamicSynonymReloadRequest());
+    }
+
+    public DynamicSynonymReloadRequestBuilder setIndex(String index) {
+        request.index(index);
+        return this;
+    }
+
+    public DynamicSynonymReloadRequestBuilder setFilter(String filter) {
+        request.filter(filter);
+        return this;
+    }
+
+    public DynamicSynonymReloadRequestBuilder setSource(String source) {
+        request.source(source);
+        return this;
+    }
+}
@@ -0,0 +1,51 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+
+public class DynamicSynonymReloadResponse extends BaseNodesResponse<NodeReloadResponse> implements ToXContentFragment {
+
+    DynamicSynonymReloadResponse() {
+    }
+
+    public DynamicSynonymReloadResponse(ClusterName clusterName, List<NodeReloadResponse> nodes,
+                                        List<FailedNodeException> failures) {
+        super(clusterName, nodes, failures);
+    }
+
+    @Override
+    protected List<NodeReloadResponse> readNodesFrom(StreamInput in) throws IOException {
+        return in.readList(NodeReloadResponse::readNodeResponse);
+    }
+
+    @Override
+    protected void writeNodesTo(StreamOutput out, List<NodeReloadResponse> nodes) throws IOException {
+        out.writeStreamableList(nodes);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("nodes");
+        for (NodeReloadResponse node : getNodes()) {
+            builder.startObject(node.getNode().getId());
+            builder.field("name", node.getNode().getName());
+            builder.field("reloaded", node.getReloaded());
+            builder.startObject("failed");
+            for (int i = 0; i < node.getFailed().size(); i++) {
+                builder.field(node.getFailed().get(i), node.getErrors().get(i));
+            }
+            builder.endObject();
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
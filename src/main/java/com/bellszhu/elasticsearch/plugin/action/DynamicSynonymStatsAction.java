@@ -0,0 +1,28 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Collects the synonym map statistics of every node.
+ */
+public class DynamicSynonymStatsAction extends Action<DynamicSynonymStatsRequest,
+        DynamicSynonymStatsResponse, DynamicSynonymStatsRequestBuilder> {
+
+    public static final DynamicSynonymStatsAction INSTANCE = new DynamicSynonymStatsAction();
+    public static final String NAME = "cluster:monitor/dynamic_synonym/stats";
+
+    private DynamicSynonymStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public DynamicSynonymStatsRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new DynamicSynonymStatsRequestBuilder(client, this);
+    }
+
+    @Override
+    public DynamicSynonymStatsResponse newResponse() {
+        return new DynamicSynonymStatsResponse();
+    }
+}
@@ -0,0 +1,10 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+
+public class DynamicSynonymStatsRequest extends BaseNodesRequest<DynamicSynonymStatsRequest> {
+
+    public DynamicSynonymStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+}
@@ -0,0 +1,12 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class DynamicSynonymStatsRequestBuilder extends NodesOperationRequestBuilder<DynamicSynonymStatsRequest,
+        DynamicSynonymStatsResponse, DynamicSynonymStatsRequestBuilder> {
+
+    public DynamicSynonymStatsRequestBuilder(ElasticsearchClient client, DynamicSynonymStatsAction action) {
+        super(client, action, new DynamicSynonymStatsRequest());
+    }
+}
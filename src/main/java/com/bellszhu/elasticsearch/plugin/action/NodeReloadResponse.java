@@ -0,0 +1,67 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Synonym maps reloaded on one node, by cache key.
+ */
+public class NodeReloadResponse extends BaseNodeResponse {
+
+    private List<String> reloaded = Collections.emptyList();
+    private List<String> failed = Collections.emptyList();
+    private List<String> errors = Collections.emptyList();
+
+    NodeReloadResponse() {
+    }
+
+    NodeReloadResponse(DiscoveryNode node, List<String> reloaded, List<String> failed, List<String> errors) {
+        super(node);
+        this.reloaded = reloaded;
+        this.failed = failed;
+        this.errors = errors;
+    }
+
+    static NodeReloadResponse readNodeResponse(StreamInput in) throws IOException {
+        NodeReloadResponse response = new NodeReloadResponse();
+        response.readFrom(in);
+        return response;
+    }
+
+    public List<String> getReloaded() {
+        return reloaded;
+    }
+
+    public List<String> getFailed() {
+        return failed;
+    }
+
+    /**
+     * Error messages, in the order of {@link #getFailed()}.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        reloaded = in.readList(StreamInput::readString);
+        failed = in.readList(StreamInput::readString);
+        errors = in.readList(StreamInput::readString);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeStringList(reloaded);
+        out.writeStringList(failed);
+        out.writeStringList(errors);
+    }
+}
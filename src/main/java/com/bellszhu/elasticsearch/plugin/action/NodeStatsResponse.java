@@ -0,0 +1,49 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Synonym map statistics of one node, as rendered by
+ * {@code DynamicSynonymTokenFilterFactory.synonymStats}.
+ */
+public class NodeStatsResponse extends BaseNodeResponse {
+
+    private Map<String, Object> stats = Collections.emptyMap();
+
+    NodeStatsResponse() {
+    }
+
+    NodeStatsResponse(DiscoveryNode node, Map<String, Object> stats) {
+        super(node);
+        this.stats = stats;
+    }
+
+    static NodeStatsResponse readNodeResponse(StreamInput in) throws IOException {
+        NodeStatsResponse response = new NodeStatsResponse();
+        response.readFrom(in);
+        return response;
+    }
+
+    public Map<String, Object> getStats() {
+        return stats;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        stats = in.readMap();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeMap(stats);
+    }
+}
@@ -0,0 +1,99 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import com.bellszhu.elasticsearch.plugin.synonym.analysis.DynamicSynonymTokenFilterFactory;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the reload on every selected node. Each node hands the rebuild to the
+ * source monitors, which coalesce it with rebuilds already queued, and answers
+ * once it finished.
+ */
+public class TransportDynamicSynonymReloadAction extends TransportNodesAction<DynamicSynonymReloadRequest,
+        DynamicSynonymReloadResponse, TransportDynamicSynonymReloadAction.NodeRequest, NodeReloadResponse> {
+
+    @Inject
+    public TransportDynamicSynonymReloadAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
+                                               TransportService transportService, ActionFilters actionFilters,
+                                               IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, DynamicSynonymReloadAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, DynamicSynonymReloadRequest::new, NodeRequest::new, ThreadPool.Names.GENERIC, NodeReloadResponse.class);
+    }
+
+    @Override
+    protected DynamicSynonymReloadResponse newResponse(DynamicSynonymReloadRequest request,
+                                                       List<NodeReloadResponse> responses,
+                                                       List<FailedNodeException> failures) {
+        return new DynamicSynonymReloadResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId, DynamicSynonymReloadRequest request) {
+        return new NodeRequest(nodeId, request);
+    }
+
+    @Override
+    protected NodeReloadResponse newNodeResponse() {
+        return new NodeReloadResponse();
+    }
+
+    @Override
+    protected NodeReloadResponse nodeOperation(NodeRequest nodeRequest) {
+        DynamicSynonymReloadRequest request = nodeRequest.request;
+        Map<String, String> result = DynamicSynonymTokenFilterFactory.reloadSynonyms(
+                request.index(), request.filter(), request.source());
+        List<String> reloaded = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        for (Map.Entry<String, String> e : result.entrySet()) {
+            if (e.getValue() == null) {
+                reloaded.add(e.getKey());
+            } else {
+                failed.add(e.getKey());
+                errors.add(e.getValue());
+            }
+        }
+        return new NodeReloadResponse(clusterService.localNode(), reloaded, failed, errors);
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+
+        DynamicSynonymReloadRequest request;
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(String nodeId, DynamicSynonymReloadRequest request) {
+            super(nodeId);
+            this.request = request;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            request = new DynamicSynonymReloadRequest();
+            request.readFrom(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            request.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.bellszhu.elasticsearch.plugin.action;
+
+import com.bellszhu.elasticsearch.plugin.synonym.analysis.DynamicSynonymTokenFilterFactory;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the statistics of every selected node. Each node renders its own
+ * synonym maps, connection pools and rebuild executor.
+ */
+public class TransportDynamicSynonymStatsAction extends TransportNodesAction<DynamicSynonymStatsRequest,
+        DynamicSynonymStatsResponse, TransportDynamicSynonymStatsAction.NodeRequest, NodeStatsResponse> {
+
+    @Inject
+    public TransportDynamicSynonymStatsAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
+                                              TransportService transportService, ActionFilters actionFilters,
+                                              IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, DynamicSynonymStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, DynamicSynonymStatsRequest::new, NodeRequest::new, ThreadPool.Names.MANAGEMENT, NodeStatsResponse.class);
+    }
+
+    @Override
+    protected DynamicSynonymStatsResponse newResponse(DynamicSynonymStatsRequest request,
+                                                      List<NodeStatsResponse> responses,
+                                                      List<FailedNodeException> failures) {
+        return new DynamicSynonymStatsResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId, DynamicSynonymStatsRequest request) {
+        return new NodeRequest(nodeId);
+    }
+
+    @Override
+    protected NodeStatsResponse newNodeResponse() {
+        return new NodeStatsResponse();
+    }
+
+    @Override
+    protected NodeStatsResponse nodeOperation(NodeRequest nodeRequest) {
+        return new NodeStatsResponse(clusterService.localNode(), localStats());
+    }
+
+    static Map<String, Object> localStats() {
+        try (XContentBuilder builder = XContentFactory.jsonBuilder()) {
+            builder.startObject();
+            DynamicSynonymTokenFilterFactory.synonymStats(builder);
+            builder.endObject();
+            return XContentHelper.convertToMap(BytesReference.bytes(builder), true, XContentType.JSON).v2();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(String nodeId) {
+            super(nodeId);
+        }
+    }
+}
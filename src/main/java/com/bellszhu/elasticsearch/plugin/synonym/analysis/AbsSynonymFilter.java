@@ -2,7 +2,8 @@ package com.bellszhu.elasticsearch.plugin.synonym.analysis;
 
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.synonym.SynonymMap;
+
+import java.io.IOException;
 
 /**
  * @author bellszhu
@@ -12,10 +13,87 @@ public abstract class AbsSynonymFilter extends TokenFilter {
      * Construct a token stream filtering the given input.
      *
      * @param input
+     * @param holder where reloads publish the synonym map
+     * @param stats  counters of the cache entry the map belongs to
      */
-    protected AbsSynonymFilter(TokenStream input) {
+    protected AbsSynonymFilter(TokenStream input, SynonymMapHolder holder, SynonymStats stats) {
         super(input);
+        this.holder = holder;
+        this.stats = stats;
+    }
+
+    private final SynonymMapHolder holder;
+    private final SynonymStats stats;
+    // The map acquired at reset(), released at close()
+    private CompiledSynonymMap acquired;
+
+    // Counted locally and flushed to the shared counters once per stream
+    long tokens;
+    long hits;
+
+    /**
+     * The currently published map. Filters read it when they are created and
+     * at every {@link #reset()} (through {@link #acquirePublished()}), and switch to it if its generation differs from
+     * the one they hold; nothing is pushed to them by the reload thread.
+     * While nothing is published this is {@link SynonymMapHolder#EMPTY}, and
+     * tokens pass through unchanged.
+     */
+    final CompiledSynonymMap published() {
+        return holder.get();
+    }
+
+    /**
+     * The currently published map, kept mapped until {@link #close()}. Called
+     * by {@link #reset()} before the filter reads the FST.
+     */
+    final CompiledSynonymMap acquirePublished() {
+        releaseAcquired();
+        CompiledSynonymMap map = holder.get();
+        while (!map.tryAcquire()) {
+            // replaced and released since it was read: the next one is published
+            map = holder.get();
+        }
+        acquired = map;
+        return map;
+    }
+
+    private void releaseAcquired() {
+        if (acquired != null) {
+            SynonymFstStore.release(acquired);
+            acquired = null;
+        }
+    }
+
+    private void flushStats() {
+        if (tokens != 0) {
+            stats.tokens.add(tokens);
+            tokens = 0;
+        }
+        if (hits != 0) {
+            stats.hits.add(hits);
+            hits = 0;
+        }
     }
 
-    abstract void update(SynonymMap synonymMap);
+    @Override
+    public void end() throws IOException {
+        super.end();
+        flushStats();
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        flushStats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            flushStats();
+            releaseAcquired();
+        }
+    }
 }
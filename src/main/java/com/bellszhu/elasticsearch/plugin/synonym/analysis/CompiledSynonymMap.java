@@ -0,0 +1,50 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A built {@link SynonymMap} together with the FST view the filters walk.
+ * When the FST is memory mapped, {@code map.fst} is null and only the words
+ * and horizon of the map are kept on heap.
+ * <p>
+ * Every instance gets a new generation, which tells filters whether the map
+ * they hold is still the published one.
+ */
+final class CompiledSynonymMap {
+
+    private static final AtomicLong generations = new AtomicLong();
+
+    final SynonymMap map;
+    final SynonymFst fst;
+    /**
+     * First terms of the rule inputs, null if unknown or the map is empty
+     */
+    final FirstTermFilter firstTerms;
+    final long generation;
+
+    /**
+     * Builds the first term filter from {@code map.fst}, which must be on heap
+     * if the map has rules.
+     */
+    CompiledSynonymMap(SynonymMap map, SynonymFst fst) {
+        this(map, fst, FirstTermFilter.build(map.fst));
+    }
+
+    CompiledSynonymMap(SynonymMap map, SynonymFst fst, FirstTermFilter firstTerms) {
+        this.map = map;
+        this.fst = fst;
+        this.firstTerms = firstTerms;
+        this.generation = generations.incrementAndGet();
+    }
+
+    /**
+     * Keeps a memory mapped FST mapped until the matching
+     * {@link SynonymFstStore#release(CompiledSynonymMap)}. Fails only if the map
+     * was replaced and its last reference released already; heap maps never fail.
+     */
+    boolean tryAcquire() {
+        return !(fst instanceof MappedSynonymFst) || ((MappedSynonymFst) fst).tryIncRef();
+    }
+}
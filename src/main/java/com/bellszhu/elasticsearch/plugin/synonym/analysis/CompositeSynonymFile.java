@@ -0,0 +1,170 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.CharsRef;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.analysis.ESSolrSynonymParser;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the rules of several sources into one map, so a token is matched
+ * against a single FST however many sources feed the filter.
+ * <p>
+ * Sources are layered by priority: the inputs a source maps claim those inputs,
+ * and mappings of lower priority sources for a claimed input are dropped. Each
+ * source is polled at its own interval, and a rebuild only fetches and parses
+ * the sources that changed; the mappings of the others are kept from their last
+ * parse and replayed.
+ */
+final class CompositeSynonymFile implements SynonymFile {
+
+    private static Logger logger = LogManager.getLogger("dynamic-synonym");
+
+    private final boolean expand;
+    private final boolean lenient;
+    private final Analyzer analyzer;
+    /**
+     * Highest priority first
+     */
+    private final List<Layer> layers = new ArrayList<>();
+
+    CompositeSynonymFile(Environment env, Analyzer analyzer, boolean expand, boolean lenient,
+                         List<SynonymSource> sources) {
+        this.expand = expand;
+        this.lenient = lenient;
+        this.analyzer = analyzer;
+        try {
+            for (SynonymSource source : sources) {
+                layers.add(new Layer(source, source.open(env, analyzer, expand, lenient)));
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized SynonymMap reloadSynonymMap(ReloadStats stats) {
+        try {
+            boolean changed = false;
+            for (Layer layer : layers) {
+                changed |= layer.poll();
+            }
+            for (Layer layer : layers) {
+                // nothing changed: the reload was requested explicitly, read everything again
+                if (layer.mappings == null || layer.stale || !changed) {
+                    logger.info("start reload synonym source [{}] {}.", layer.source.name, layer.source.key());
+                    try (Reader rulesReader = layer.file.getReader()) {
+                        layer.mappings = SynonymMappings.parse(
+                                rulesReader, layer.source.format, expand, lenient, analyzer);
+                    }
+                    layer.stale = false;
+                }
+            }
+            SynonymMap.Builder merged = new ESSolrSynonymParser(true, expand, lenient, analyzer) {
+                @Override
+                public void add(CharsRef input, CharsRef output, boolean includeOrig) {
+                    super.add(input, output, includeOrig);
+                    stats.rule();
+                }
+            };
+            Set<CharsRef> claimed = new HashSet<>();
+            for (Layer layer : layers) {
+                Set<CharsRef> inputs = new HashSet<>();
+                for (SynonymMappings.Mapping mapping : layer.mappings.mappings) {
+                    if (claimed.contains(mapping.input)) {
+                        continue;
+                    }
+                    merged.add(mapping.input, mapping.output, mapping.includeOrig);
+                    inputs.add(mapping.input);
+                }
+                claimed.addAll(inputs);
+            }
+            stats.parsed();
+            return merged.build();
+        } catch (Exception e) {
+            logger.error("reload composite synonym error!", e);
+            throw new IllegalArgumentException(
+                    "could not reload synonym sources to build synonyms", e);
+        }
+    }
+
+    /**
+     * Polls the sources that are due and marks the changed ones for the next
+     * rebuild.
+     */
+    @Override
+    public synchronized boolean isNeedReloadSynonymMap() {
+        long now = System.nanoTime();
+        boolean changed = false;
+        for (Layer layer : layers) {
+            if (now - layer.nextPoll >= 0) {
+                layer.nextPoll = now + TimeUnit.SECONDS.toNanos(layer.source.interval);
+                changed |= layer.poll();
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public String getVersion() {
+        StringBuilder version = new StringBuilder();
+        for (Layer layer : layers) {
+            String layerVersion = layer.file.getVersion();
+            if (layerVersion == null) {
+                return null;
+            }
+            version.append(layer.source.name).append('=').append(layerVersion).append(';');
+        }
+        return version.toString();
+    }
+
+    @Override
+    public void close() {
+        for (Layer layer : layers) {
+            try {
+                layer.file.close();
+            } catch (Exception e) {
+                logger.error("failed to close synonym source [{}]", layer.source.name, e);
+            }
+        }
+    }
+
+    private static final class Layer {
+
+        final SynonymSource source;
+        final SynonymRuleFile file;
+        /**
+         * Mappings of the last parse, null until first parsed
+         */
+        SynonymMappings mappings;
+        boolean stale;
+        long nextPoll = System.nanoTime();
+
+        Layer(SynonymSource source, SynonymRuleFile file) {
+            this.source = source;
+            this.file = file;
+        }
+
+        boolean poll() {
+            try {
+                if (file.isNeedReloadSynonymMap()) {
+                    stale = true;
+                }
+            } catch (Exception e) {
+                // keep the last rules of this source, the others may still reload
+                logger.error("check synonym source [{}] error!", source.name, e);
+            }
+            return stale;
+        }
+    }
+}
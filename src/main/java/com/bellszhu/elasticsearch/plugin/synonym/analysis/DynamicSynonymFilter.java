@@ -26,8 +26,8 @@ import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
 import org.apache.lucene.store.ByteArrayDataInput;
 import org.apache.lucene.util.ArrayUtil;
-import org.apache.lucene.util.AttributeSource;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.lucene.util.CharsRef;
 import org.apache.lucene.util.CharsRefBuilder;
 import org.apache.lucene.util.RamUsageEstimator;
@@ -120,6 +120,10 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
     private final ByteArrayDataInput bytesReader = new ByteArrayDataInput();
     private final BytesRef scratchBytes = new BytesRef();
     private final CharsRefBuilder scratchChars = new CharsRefBuilder();
+    // Outputs accumulated along the FST path, reused instead of the BytesRef
+    // each Outputs.add would allocate:
+    private final BytesRefBuilder pendingOutput = new BytesRefBuilder();
+    private final BytesRefBuilder matchOutput = new BytesRefBuilder();
     private SynonymMap synonyms;
     private int rollBufferSize;
 
@@ -146,9 +150,13 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
     // True once we've read last token
     private boolean finished;
 
-    private FST.Arc<BytesRef> scratchArc;
+    private final SynonymFst.Arc scratchArc = new SynonymFst.Arc();
 
-    private FST<BytesRef> fst;
+    private CompiledSynonymMap current;
+
+    private SynonymFst fst;
+
+    private FirstTermFilter firstTerms;
 
     private FST.BytesReader fstReader;
     /*
@@ -170,18 +178,18 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
      *                   true, its your responsibility to lowercase the input entries
      *                   when you create the {@link SynonymMap}
      */
-    DynamicSynonymFilter(TokenStream input, SynonymMap synonyms,
+    DynamicSynonymFilter(TokenStream input, SynonymMapHolder synonyms, SynonymStats stats,
                          boolean ignoreCase) {
-        super(input);
+        super(input, synonyms, stats);
         this.ignoreCase = ignoreCase;
-        update(synonyms);
+        apply(published());
     }
 
     private void capture() {
         captureCount++;
         final PendingInput input = futureInputs[nextWrite];
 
-        input.state = captureState();
+        input.state.capture(this);
         input.consumed = false;
         input.term.copyChars(termAtt.buffer(), 0, termAtt.length());
 
@@ -198,11 +206,11 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
         int curNextRead = nextRead;
 
         // Holds the longest match we've seen so far:
-        BytesRef matchOutput = null;
+        boolean matched = false;
         int matchInputLength = 0;
         int matchEndOffset = -1;
 
-        BytesRef pendingOutput = fst.outputs.getNoOutput();
+        pendingOutput.clear();
         fst.getFirstArc(scratchArc);
 
         assert scratchArc.output == fst.outputs.getNoOutput();
@@ -230,6 +238,7 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
                     // than its input can set future inputs keepOrig
                     // to true:
                     if (input.incrementToken()) {
+                        tokens++;
                         buffer = termAtt.buffer();
                         bufferLen = termAtt.length();
                         final PendingInput input = futureInputs[nextWrite];
@@ -256,6 +265,13 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
                 inputEndOffset = futureInputs[curNextRead].endOffset;
             }
 
+            if (tokenCount == 0 && firstTerms != null
+                    && !firstTerms.mightStartRule(buffer, bufferLen, ignoreCase)) {
+                // No rule starts with this token; the FST walk
+                // would fail within it
+                break;
+            }
+
             tokenCount++;
 
             // Run each char in this token through the FST:
@@ -270,16 +286,16 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
                 }
 
                 // Accum the output
-                pendingOutput = fst.outputs.add(pendingOutput,
-                        scratchArc.output);
+                pendingOutput.append(scratchArc.output);
                 bufUpto += Character.charCount(codePoint);
             }
 
             // OK, entire token matched; now see if this is a final
             // state:
             if (scratchArc.isFinal()) {
-                matchOutput = fst.outputs.add(pendingOutput,
-                        scratchArc.nextFinalOutput);
+                matchOutput.copyBytes(pendingOutput);
+                matchOutput.append(scratchArc.nextFinalOutput);
+                matched = true;
                 matchInputLength = tokenCount;
                 matchEndOffset = inputEndOffset;
             }
@@ -295,8 +311,7 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
             } else {
                 // More matching is possible -- accum the output (if
                 // any) of the WORD_SEP arc:
-                pendingOutput = fst.outputs.add(pendingOutput,
-                        scratchArc.output);
+                pendingOutput.append(scratchArc.output);
                 if (nextRead == nextWrite) {
                     capture();
                 }
@@ -309,9 +324,10 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
             nextWrite = rollIncr(nextWrite);
         }
 
-        if (matchOutput != null) {
+        if (matched) {
+            hits++;
             inputSkipCount = matchInputLength;
-            addOutput(matchOutput, matchInputLength, matchEndOffset);
+            addOutput(matchOutput.get(), matchInputLength, matchEndOffset);
         } else if (nextRead != nextWrite) {
             // Even though we had no match here, we set to 1
             // because we need to skip current input token before
@@ -393,6 +409,15 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
     @Override
     public boolean incrementToken() throws IOException {
 
+        if (fst == null) {
+            // the rules were emptied by a reload
+            if (input.incrementToken()) {
+                tokens++;
+                return true;
+            }
+            return false;
+        }
+
         while (true) {
 
             // First play back any buffered future inputs/outputs
@@ -408,10 +433,10 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
                 final PendingOutputs outputs = futureOutputs[nextRead];
 
                 if (!input.consumed && (input.keepOrig || !input.matched)) {
-                    if (input.state != null) {
+                    if (input.state.isCaptured()) {
                         // Return a previously saved token (because we
                         // had to lookahead):
-                        restoreState(input.state);
+                        input.state.restore(this);
                     } else {
                         // Pass-through case: return token we just pulled
                         // but didn't capture:
@@ -492,6 +517,12 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
     public void reset() throws IOException {
 
         super.reset();
+        // slots the last stream may have used, before a new map moves the horizon:
+        int used = rollBufferSize;
+        CompiledSynonymMap next = acquirePublished();
+        if (next.generation != current.generation) {
+            apply(next);
+        }
         captureCount = 0;
         finished = false;
         inputSkipCount = 0;
@@ -501,36 +532,37 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
         // since they reset-as-they-are-consumed, but the app
         // may not consume all input tokens (or we might hit an
         // exception), in which case we have leftover state
-        // here:
-        for (PendingInput input : futureInputs) {
-            input.reset();
-        }
-        for (PendingOutputs output : futureOutputs) {
-            output.reset();
+        // here. Slots past both horizons are still clean:
+        for (int pos = 0; pos < Math.max(used, rollBufferSize); pos++) {
+            futureInputs[pos].reset();
+            futureOutputs[pos].reset();
         }
     }
 
-    void update(SynonymMap synonymMap) {
-        this.synonyms = synonymMap;
-        this.fst = synonyms.fst;
-        if (fst == null) {
-            throw new IllegalArgumentException("fst must be non-null");
-        }
-        this.fstReader = fst.getBytesReader();
+    private void apply(CompiledSynonymMap synonymMap) {
+        this.current = synonymMap;
+        this.synonyms = synonymMap.map;
+        this.fst = synonymMap.fst;
+        this.firstTerms = synonymMap.firstTerms;
+        this.fstReader = fst == null ? null : fst.getBytesReader();
 
         // Must be 1+ so that when roll buffer is at full
         // lookahead we can distinguish this full buffer from
         // the empty buffer:
         rollBufferSize = 1 + synonyms.maxHorizontalContext;
 
-        futureInputs = new PendingInput[rollBufferSize];
-        futureOutputs = new PendingOutputs[rollBufferSize];
-        for (int pos = 0; pos < rollBufferSize; pos++) {
-            futureInputs[pos] = new PendingInput();
-            futureOutputs[pos] = new PendingOutputs();
+        // Only grow: the buffers are reused across maps
+        int have = futureInputs == null ? 0 : futureInputs.length;
+        if (have < rollBufferSize) {
+            futureInputs = futureInputs == null
+                    ? new PendingInput[rollBufferSize] : Arrays.copyOf(futureInputs, rollBufferSize);
+            futureOutputs = futureOutputs == null
+                    ? new PendingOutputs[rollBufferSize] : Arrays.copyOf(futureOutputs, rollBufferSize);
+            for (int pos = have; pos < rollBufferSize; pos++) {
+                futureInputs[pos] = new PendingInput();
+                futureOutputs[pos] = new PendingOutputs();
+            }
         }
-
-        scratchArc = new FST.Arc<>();
     }
 
     // Hold all buffered (read ahead) stacked input tokens for
@@ -541,7 +573,7 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
     // position:
     private static class PendingInput {
         final CharsRefBuilder term = new CharsRefBuilder();
-        AttributeSource.State state;
+        final SavedState state = new SavedState();
         boolean keepOrig;
         boolean matched;
         boolean consumed = true;
@@ -549,7 +581,7 @@ public final class DynamicSynonymFilter extends AbsSynonymFilter {
         int endOffset;
 
         void reset() {
-            state = null;
+            state.clear();
             consumed = true;
             keepOrig = false;
             matched = false;
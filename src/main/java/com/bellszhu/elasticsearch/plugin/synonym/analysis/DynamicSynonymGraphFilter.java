@@ -27,15 +27,15 @@ import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
 import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.lucene.util.CharsRefBuilder;
-import org.apache.lucene.util.RollingBuffer;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.apache.lucene.util.fst.FST;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 // TODO: maybe we should resolve token -> wordID then run
 // FST on wordIDs, for better perf?
@@ -91,14 +91,27 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
   private SynonymMap synonyms;
   private final boolean ignoreCase;
 
-  private FST<BytesRef> fst;
+  private SynonymFst fst;
+  private FirstTermFilter firstTerms;
+  private CompiledSynonymMap current;
 
   private FST.BytesReader fstReader;
-  private FST.Arc<BytesRef> scratchArc;
+  private final SynonymFst.Arc scratchArc = new SynonymFst.Arc();
   private final ByteArrayDataInput bytesReader = new ByteArrayDataInput();
   private final BytesRef scratchBytes = new BytesRef();
-  private final CharsRefBuilder scratchChars = new CharsRefBuilder();
-  private final LinkedList<BufferedOutputToken> outputBuffer = new LinkedList<>();
+  private final BytesRefBuilder pendingOutput = new BytesRefBuilder();
+  private final BytesRefBuilder matchOutput = new BytesRefBuilder();
+
+  // Ring of output tokens, reused across matches; the slots and
+  // their term buffers only grow:
+  private BufferedOutputToken[] outputBuffer = newOutputTokens(new BufferedOutputToken[0], 8);
+  private int outputHead;
+  private int outputCount;
+
+  // Per-match scratch: the decoded outputs and where each path ends
+  private CharsRefBuilder[] paths = new CharsRefBuilder[0];
+  private int[] pathLengths = new int[0];
+  private int[] pathEndNodes = new int[0];
 
   private int nextNodeOut;
   private int lastNodeOut;
@@ -119,22 +132,19 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
   private int lookaheadNextRead;
   private int lookaheadNextWrite;
 
-  private RollingBuffer<BufferedInputToken> lookahead = new RollingBuffer<BufferedInputToken>() {
-    @Override
-    protected BufferedInputToken newInstance() {
-      return new BufferedInputToken();
-    }
-  };
+  // Lookahead tokens by position, in a ring sized from the horizon of
+  // the map; positions before lookaheadFreed have been reset:
+  private BufferedInputToken[] lookahead = new BufferedInputToken[0];
+  private int lookaheadFreed;
 
-  static class BufferedInputToken implements RollingBuffer.Resettable {
+  static class BufferedInputToken {
     final CharsRefBuilder term = new CharsRefBuilder();
-    State state;
+    final SavedState state = new SavedState();
     int startOffset = -1;
     int endOffset = -1;
 
-    @Override
-    public void reset() {
-      state = null;
+    void reset() {
+      state.clear();
       term.clear();
 
       // Intentionally invalid to ferret out bugs:
@@ -144,20 +154,13 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
   }
 
   static class BufferedOutputToken {
-    final String term;
-
-    // Non-null if this was an incoming token:
-    final State state;
+    final CharsRefBuilder term = new CharsRefBuilder();
 
-    final int startNode;
-    final int endNode;
+    // Captured if this was an incoming token:
+    final SavedState state = new SavedState();
 
-    public BufferedOutputToken(State state, String term, int startNode, int endNode) {
-      this.state = state;
-      this.term = term;
-      this.startNode = startNode;
-      this.endNode = endNode;
-    }
+    int startNode;
+    int endNode;
   }
 
   /**
@@ -168,19 +171,30 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
    *                   Note, if you set this to true, it's your responsibility to lowercase
    *                   the input entries when you create the {@link SynonymMap}
    */
-  public DynamicSynonymGraphFilter(TokenStream input, SynonymMap synonyms, boolean ignoreCase) {
-    super(input);
-    update(synonyms);
+  public DynamicSynonymGraphFilter(TokenStream input, SynonymMapHolder synonyms, SynonymStats stats,
+                                   boolean ignoreCase) {
+    super(input, synonyms, stats);
     this.ignoreCase = ignoreCase;
+    // last: apply() reads the final fields
+    apply(published());
   }
 
   @Override
   public boolean incrementToken() throws IOException {
     //System.out.println("\nS: incrToken lastNodeOut=" + lastNodeOut + " nextNodeOut=" + nextNodeOut);
 
+    if (fst == null) {
+      // the rules were emptied by a reload
+      if (input.incrementToken()) {
+        tokens++;
+        return true;
+      }
+      return false;
+    }
+
     assert lastNodeOut <= nextNodeOut;
       
-    if (outputBuffer.isEmpty() == false) {
+    if (outputCount != 0) {
       // We still have pending outputs from a prior synonym match:
       releaseBufferedToken();
       //System.out.println("  syn: ret buffered=" + this);
@@ -222,12 +236,12 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
       // parse attempt that required lookahead; just replay them now:
       //System.out.println("  restore buffer");
       assert lookaheadNextRead < lookaheadNextWrite: "read=" + lookaheadNextRead + " write=" + lookaheadNextWrite;
-      BufferedInputToken token = lookahead.get(lookaheadNextRead);
+      BufferedInputToken token = lookahead(lookaheadNextRead);
       lookaheadNextRead++;
 
-      restoreState(token.state);
+      token.state.restore(this);
 
-      lookahead.freeBefore(lookaheadNextRead);
+      freeBefore(lookaheadNextRead);
 
       //System.out.println("  after restore offset=" + offsetAtt.startOffset() + "-" + offsetAtt.endOffset());
       assert liveToken == false;
@@ -244,17 +258,19 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
   private void releaseBufferedToken() throws IOException {
     //System.out.println("  releaseBufferedToken");
 
-    BufferedOutputToken token = outputBuffer.pollFirst();
+    BufferedOutputToken token = outputBuffer[outputHead];
+    outputHead = outputHead + 1 == outputBuffer.length ? 0 : outputHead + 1;
+    outputCount--;
 
-    if (token.state != null) {
+    if (token.state.isCaptured()) {
       // This is an original input token (keepOrig=true case):
       //System.out.println("    hasState");
-      restoreState(token.state);
+      token.state.restore(this);
       //System.out.println("    startOffset=" + offsetAtt.startOffset() + " endOffset=" + offsetAtt.endOffset());
     } else {
       clearAttributes();
       //System.out.println("    no state");
-      termAtt.append(token.term);
+      termAtt.copyBuffer(token.term.chars(), 0, token.term.length());
 
       // We better have a match already:
       assert matchStartOffset != -1;
@@ -278,10 +294,10 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
     // System.out.println(Thread.currentThread().getName() + ": S: parse: " + System.identityHashCode(this));
 
     // Holds the longest match we've seen so far:
-    BytesRef matchOutput = null;
+    boolean matched = false;
     int matchInputLength = 0;
 
-    BytesRef pendingOutput = fst.outputs.getNoOutput();
+    pendingOutput.clear();
     fst.getFirstArc(scratchArc);
 
     assert scratchArc.output == fst.outputs.getNoOutput();
@@ -295,21 +311,20 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
 
     byToken:
     while (true) {
-      //System.out.println("  cycle lookaheadUpto=" + lookaheadUpto + " maxPos=" + lookahead.getMaxPos());
+      //System.out.println("  cycle lookaheadUpto=" + lookaheadUpto + " nextWrite=" + lookaheadNextWrite);
       
       // Pull next token's chars:
       final char[] buffer;
       final int bufferLen;
       final int inputEndOffset;
 
-      if (lookaheadUpto <= lookahead.getMaxPos()) {
+      if (lookaheadUpto < lookaheadNextWrite) {
         // Still in our lookahead buffer
-        BufferedInputToken token = lookahead.get(lookaheadUpto);
+        BufferedInputToken token = lookahead(lookaheadUpto);
         lookaheadUpto++;
         buffer = token.term.chars();
         bufferLen = token.term.length();
         inputEndOffset = token.endOffset;
-        //System.out.println("    use buffer now max=" + lookahead.getMaxPos());
         if (matchStartOffset == -1) {
           matchStartOffset = token.startOffset;
         }
@@ -325,6 +340,7 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
           break;
         } else if (input.incrementToken()) {
           //System.out.println("    input.incrToken");
+          tokens++;
           liveToken = true;
           buffer = termAtt.buffer();
           bufferLen = termAtt.length();
@@ -342,6 +358,11 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
         }
       }
 
+      if (matchLength == 0 && firstTerms != null && firstTerms.mightStartRule(buffer, bufferLen, ignoreCase) == false) {
+        // No rule starts with this token; the FST walk would fail within it
+        break;
+      }
+
       matchLength++;
       //System.out.println("    cycle term=" + new String(buffer, 0, bufferLen));
 
@@ -354,7 +375,7 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
         }
 
         // Accum the output
-        pendingOutput = fst.outputs.add(pendingOutput, scratchArc.output);
+        pendingOutput.append(scratchArc.output);
         bufUpto += Character.charCount(codePoint);
       }
 
@@ -363,7 +384,9 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
       // OK, entire token matched; now see if this is a final
       // state in the FST (a match):
       if (scratchArc.isFinal()) {
-        matchOutput = fst.outputs.add(pendingOutput, scratchArc.nextFinalOutput);
+        matchOutput.copyBytes(pendingOutput);
+        matchOutput.append(scratchArc.nextFinalOutput);
+        matched = true;
         matchInputLength = matchLength;
         matchEndOffset = inputEndOffset;
         //System.out.println("    ** match");
@@ -379,7 +402,7 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
       } else {
         // More matching is possible -- accum the output (if
         // any) of the WORD_SEP arc:
-        pendingOutput = fst.outputs.add(pendingOutput, scratchArc.output);
+        pendingOutput.append(scratchArc.output);
         doFinalCapture = true;
         if (liveToken) {
           capture();
@@ -392,7 +415,8 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
       capture();
     }
 
-    if (matchOutput != null) {
+    if (matched) {
+      hits++;
 
       if (liveToken) {
         // Single input token synonym; we must buffer it now:
@@ -400,11 +424,10 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
       }
 
       // There is a match!
-      bufferOutputTokens(matchOutput, matchInputLength);
+      bufferOutputTokens(matchOutput.get(), matchInputLength);
       lookaheadNextRead += matchInputLength;
-      //System.out.println("  precmatch; set lookaheadNextRead=" + lookaheadNextRead + " now max=" + lookahead.getMaxPos());
-      lookahead.freeBefore(lookaheadNextRead);
-      //System.out.println("  match; set lookaheadNextRead=" + lookaheadNextRead + " now max=" + lookahead.getMaxPos());
+      freeBefore(lookaheadNextRead);
+      //System.out.println("  match; set lookaheadNextRead=" + lookaheadNextRead + " nextWrite=" + lookaheadNextWrite);
       return true;
     } else {
       //System.out.println("  no match; lookaheadNextRead=" + lookaheadNextRead);
@@ -439,26 +462,30 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
 
     // TODO: we could encode this instead into the FST:
 
-    // 1st pass: count how many new nodes we need
-    List<List<String>> paths = new ArrayList<>();
+    // 1st pass: decode the outputs and count how many new nodes we need
+    if (paths.length < count) {
+      int have = paths.length;
+      paths = Arrays.copyOf(paths, ArrayUtil.oversize(count, RamUsageEstimator.NUM_BYTES_OBJECT_REF));
+      for (int i = have; i < paths.length; i++) {
+        paths[i] = new CharsRefBuilder();
+      }
+      pathLengths = new int[paths.length];
+      pathEndNodes = new int[paths.length];
+    }
     for(int outputIDX=0;outputIDX<count;outputIDX++) {
       int wordID = bytesReader.readVInt();
       synonyms.words.get(wordID, scratchBytes);
-      scratchChars.copyUTF8Bytes(scratchBytes);
-      int lastStart = 0;
-
-      List<String> path = new ArrayList<>();
-      paths.add(path);
-      int chEnd = scratchChars.length();
-      for(int chUpto=0; chUpto<=chEnd; chUpto++) {
-        if (chUpto == chEnd || scratchChars.charAt(chUpto) == SynonymMap.WORD_SEPARATOR) {
-          path.add(new String(scratchChars.chars(), lastStart, chUpto - lastStart));
-          lastStart = 1 + chUpto;
+      CharsRefBuilder path = paths[outputIDX];
+      path.copyUTF8Bytes(scratchBytes);
+
+      int pathLength = 1;
+      for(int chUpto=0; chUpto<path.length(); chUpto++) {
+        if (path.charAt(chUpto) == SynonymMap.WORD_SEPARATOR) {
+          pathLength++;
         }
       }
-
-      assert path.size() > 0;
-      totalPathNodes += path.size() - 1;
+      pathLengths[outputIDX] = pathLength;
+      totalPathNodes += pathLength - 1;
     }
     //System.out.println("  totalPathNodes=" + totalPathNodes);
 
@@ -473,27 +500,30 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
     int startNode = nextNodeOut;
 
     int endNode = startNode + totalPathNodes + 1;
-    //System.out.println("  " + paths.size() + " new side-paths");
+    //System.out.println("  " + count + " new side-paths");
 
     // First, fanout all tokens departing start node for these new side paths:
     int newNodeCount = 0;
-    for(List<String> path : paths) {
+    for(int pathID=0;pathID<count;pathID++) {
       int pathEndNode;
-      //System.out.println("    path size=" + path.size());
-      if (path.size() == 1) {
+      //System.out.println("    path size=" + pathLengths[pathID]);
+      if (pathLengths[pathID] == 1) {
         // Single token output, so there are no intermediate nodes:
         pathEndNode = endNode;
       } else {
         pathEndNode = nextNodeOut + newNodeCount + 1;
-        newNodeCount += path.size() - 1;
+        newNodeCount += pathLengths[pathID] - 1;
       }
-      outputBuffer.add(new BufferedOutputToken(null, path.get(0), startNode, pathEndNode));
+      pathEndNodes[pathID] = pathEndNode;
+      CharsRefBuilder path = paths[pathID];
+      int chEnd = indexOfSeparator(path, 0);
+      addOutputToken(startNode, pathEndNode).term.copyChars(path.chars(), 0, chEnd);
     }
 
     // We must do the original tokens last, else the offsets "go backwards":
+    int inputEndNode = -1;
     if (keepOrig) {
-      BufferedInputToken token = lookahead.get(lookaheadNextRead);
-      int inputEndNode;
+      BufferedInputToken token = lookahead(lookaheadNextRead);
       if (matchInputLength == 1) {
         // Single token matched input, so there are no intermediate nodes:
         inputEndNode = endNode;
@@ -503,66 +533,117 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
 
       //System.out.println("    keepOrig first token: " + token.term);
 
-      outputBuffer.add(new BufferedOutputToken(token.state, token.term.toString(), startNode, inputEndNode));
+      addOutputToken(startNode, inputEndNode).state.capture(token.state);
     }
 
     nextNodeOut = endNode;
 
     // Do full side-path for each syn output:
-    for(int pathID=0;pathID<paths.size();pathID++) {
-      List<String> path = paths.get(pathID);
-      if (path.size() > 1) {
-        int lastNode = outputBuffer.get(pathID).endNode;
-        for(int i=1;i<path.size()-1;i++) {
-          outputBuffer.add(new BufferedOutputToken(null, path.get(i), lastNode, lastNode+1));
+    for(int pathID=0;pathID<count;pathID++) {
+      if (pathLengths[pathID] > 1) {
+        CharsRefBuilder path = paths[pathID];
+        int lastNode = pathEndNodes[pathID];
+        int lastStart = indexOfSeparator(path, 0) + 1;
+        for(int i=1;i<pathLengths[pathID]-1;i++) {
+          int chEnd = indexOfSeparator(path, lastStart);
+          addOutputToken(lastNode, lastNode+1).term.copyChars(path.chars(), lastStart, chEnd - lastStart);
+          lastStart = chEnd + 1;
           lastNode++;
         }
-        outputBuffer.add(new BufferedOutputToken(null, path.get(path.size()-1), lastNode, endNode));
+        addOutputToken(lastNode, endNode).term.copyChars(path.chars(), lastStart, path.length() - lastStart);
       }
     }
 
     if (keepOrig && matchInputLength > 1) {
       // Do full "side path" with the original tokens:
-      int lastNode = outputBuffer.get(paths.size()).endNode;
+      int lastNode = inputEndNode;
       for(int i=1;i<matchInputLength-1;i++) {
-        BufferedInputToken token = lookahead.get(lookaheadNextRead + i);
-        outputBuffer.add(new BufferedOutputToken(token.state, token.term.toString(), lastNode, lastNode+1));
+        BufferedInputToken token = lookahead(lookaheadNextRead + i);
+        addOutputToken(lastNode, lastNode+1).state.capture(token.state);
         lastNode++;
       }
-      BufferedInputToken token = lookahead.get(lookaheadNextRead + matchInputLength - 1);
-      outputBuffer.add(new BufferedOutputToken(token.state, token.term.toString(), lastNode, endNode));
+      BufferedInputToken token = lookahead(lookaheadNextRead + matchInputLength - 1);
+      addOutputToken(lastNode, endNode).state.capture(token.state);
     }
 
     /*
-    System.out.println("  after buffer: " + outputBuffer.size() + " tokens:");
-    for(BufferedOutputToken token : outputBuffer) {
+    System.out.println("  after buffer: " + outputCount + " tokens:");
+    for(int i=0;i<outputCount;i++) {
+      BufferedOutputToken token = outputBuffer[(outputHead + i) % outputBuffer.length];
       System.out.println("    tok: " + token.term + " startNode=" + token.startNode + " endNode=" + token.endNode);
     }
     */
   }
 
+  private static int indexOfSeparator(CharsRefBuilder path, int from) {
+    for(int chUpto=from; chUpto<path.length(); chUpto++) {
+      if (path.charAt(chUpto) == SynonymMap.WORD_SEPARATOR) {
+        return chUpto;
+      }
+    }
+    return path.length();
+  }
+
+  /** Appends a cleared slot to the output ring, growing it when full. */
+  private BufferedOutputToken addOutputToken(int startNode, int endNode) {
+    if (outputCount == outputBuffer.length) {
+      // unroll the ring into the front of a larger one:
+      BufferedOutputToken[] next = new BufferedOutputToken[outputBuffer.length];
+      for (int i = 0; i < outputCount; i++) {
+        next[i] = outputBuffer[(outputHead + i) % outputBuffer.length];
+      }
+      outputBuffer = newOutputTokens(next, ArrayUtil.oversize(outputCount + 1, RamUsageEstimator.NUM_BYTES_OBJECT_REF));
+      outputHead = 0;
+    }
+    BufferedOutputToken token = outputBuffer[(outputHead + outputCount) % outputBuffer.length];
+    outputCount++;
+    token.state.clear();
+    token.term.clear();
+    token.startNode = startNode;
+    token.endNode = endNode;
+    return token;
+  }
+
+  private static BufferedOutputToken[] newOutputTokens(BufferedOutputToken[] from, int size) {
+    BufferedOutputToken[] tokens = Arrays.copyOf(from, size);
+    for (int i = from.length; i < size; i++) {
+      tokens[i] = new BufferedOutputToken();
+    }
+    return tokens;
+  }
+
   /** Buffers the current input token into lookahead buffer. */
   private void capture() {
     assert liveToken;
     liveToken = false;
-    BufferedInputToken token = lookahead.get(lookaheadNextWrite);
+    if (lookaheadNextWrite - lookaheadFreed == lookahead.length) {
+      // a match never buffers more than the horizon; grow rather
+      // than overwrite a live token if that ever changes
+      resizeLookahead(lookahead.length + 1);
+    }
+    BufferedInputToken token = lookahead(lookaheadNextWrite);
     lookaheadNextWrite++;
 
-    token.state = captureState();
+    token.state.capture(this);
     token.startOffset = offsetAtt.startOffset();
     token.endOffset = offsetAtt.endOffset();
     assert token.term.length() == 0;
     token.term.append(termAtt);
 
     captureCount++;
-    maxLookaheadUsed = Math.max(maxLookaheadUsed, lookahead.getBufferSize());
+    maxLookaheadUsed = Math.max(maxLookaheadUsed, lookaheadNextWrite - lookaheadFreed);
     //System.out.println("  maxLookaheadUsed=" + maxLookaheadUsed);
   }
 
   @Override
   public void reset() throws IOException {
     super.reset();
-    lookahead.reset();
+    CompiledSynonymMap next = acquirePublished();
+    if (next.generation != current.generation) {
+      apply(next);
+    }
+    freeBefore(lookaheadNextWrite);
+    lookaheadFreed = 0;
     lookaheadNextWrite = 0;
     lookaheadNextRead = 0;
     captureCount = 0;
@@ -572,20 +653,63 @@ public final class DynamicSynonymGraphFilter extends AbsSynonymFilter {
     matchEndOffset = -1;
     finished = false;
     liveToken = false;
-    outputBuffer.clear();
+    outputHead = 0;
+    outputCount = 0;
     maxLookaheadUsed = 0;
     //System.out.println("S: reset");
   }
 
-  void update(SynonymMap synonymMap) {
-    this.synonyms = synonymMap;
-    this.fst = synonyms.fst;
-    if (fst == null) {
-      throw new IllegalArgumentException("fst must be non-null");
+  private void apply(CompiledSynonymMap synonymMap) {
+    this.current = synonymMap;
+    this.synonyms = synonymMap.map;
+    this.fst = synonymMap.fst;
+    this.firstTerms = synonymMap.firstTerms;
+    this.fstReader = fst == null ? null : fst.getBytesReader();
+
+    // A match buffers at most maxHorizontalContext tokens, plus the
+    // one that ends it; only grow, the slots are reused across maps:
+    if (lookahead.length < synonyms.maxHorizontalContext + 1) {
+      resizeLookahead(synonyms.maxHorizontalContext + 1);
+    }
+  }
+
+  private BufferedInputToken lookahead(int pos) {
+    assert pos >= lookaheadFreed && pos - lookaheadFreed < lookahead.length
+        : "pos=" + pos + " freed=" + lookaheadFreed + " size=" + lookahead.length;
+    return lookahead[pos % lookahead.length];
+  }
+
+  /** Resets the lookahead tokens before {@code pos}, making their slots free. */
+  private void freeBefore(int pos) {
+    for (; lookaheadFreed < pos; lookaheadFreed++) {
+      lookahead[lookaheadFreed % lookahead.length].reset();
     }
-    this.fstReader = fst.getBytesReader();
-    scratchArc = new FST.Arc<>();
+  }
 
+  /** Moves the live lookahead tokens to a ring of {@code size} slots. */
+  private void resizeLookahead(int size) {
+    BufferedInputToken[] next = new BufferedInputToken[size];
+    // the live tokens keep their positions:
+    for (int pos = lookaheadFreed; pos < lookaheadNextWrite; pos++) {
+      next[pos % size] = lookahead[pos % lookahead.length];
+      lookahead[pos % lookahead.length] = null;
+    }
+    // the free ones go to the slots left, with their clones:
+    int slot = 0;
+    for (BufferedInputToken token : lookahead) {
+      if (token != null) {
+        while (next[slot] != null) {
+          slot++;
+        }
+        next[slot] = token;
+      }
+    }
+    for (slot = 0; slot < size; slot++) {
+      if (next[slot] == null) {
+        next[slot] = new BufferedInputToken();
+      }
+    }
+    lookahead = next;
   }
 
   // for testing
@@ -36,7 +36,8 @@ public class DynamicSynonymGraphTokenFilterFactory extends DynamicSynonymTokenFi
     ) {
         final String name = name();
         final Analyzer analyzer = buildSynonymAnalyzer(name,tokenizer, charFilters, previousTokenFilters, allFilters);
-        synonymMap = buildSynonyms(analyzer);
+        final SynonymMapCache.Entry entry = buildSynonyms(
+                analyzer, chainFingerprint(tokenizer, charFilters, previousTokenFilters));
         return new TokenFilterFactory() {
             @Override
             public String name() {
@@ -45,15 +46,12 @@ public class DynamicSynonymGraphTokenFilterFactory extends DynamicSynonymTokenFi
 
             @Override
             public TokenStream create(TokenStream tokenStream) {
-                // fst is null means no synonyms
-                if (synonymMap.fst == null) {
-                    return tokenStream;
-                }
-                DynamicSynonymGraphFilter dynamicSynonymGraphFilter = new DynamicSynonymGraphFilter(
-                        tokenStream, synonymMap, false);
-                dynamicSynonymFilters.put(dynamicSynonymGraphFilter, 1);
-
-                return dynamicSynonymGraphFilter;
+                // Always wrap, even while the map is empty: the analyzer reuses this
+                // stream, and the filter picks up later reloads at reset(). The
+                // analyzer's ReuseStrategy keeps one stream per thread, so this runs
+                // once per thread, not per document; the filter's buffers are kept
+                // across documents and reloads
+                return new DynamicSynonymGraphFilter(tokenStream, entry.getHolder(), entry.getStats(), false);
             }
 
 
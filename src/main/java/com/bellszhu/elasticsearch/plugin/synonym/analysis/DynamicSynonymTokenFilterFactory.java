@@ -1,14 +1,13 @@
 package com.bellszhu.elasticsearch.plugin.synonym.analysis;
 
 
-import com.bellszhu.elasticsearch.plugin.synonym.ext.SynonymDb;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.elasticsearch.common.logging.DeprecationLogger;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
@@ -18,14 +17,11 @@ import org.elasticsearch.index.analysis.TokenFilterFactory;
 import org.elasticsearch.index.analysis.TokenizerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * @author bellszhu
@@ -38,31 +34,18 @@ public class DynamicSynonymTokenFilterFactory extends
     private static Logger logger = LogManager.getLogger("dynamic-synonym");
 
     /**
-     * Static id generator
+     * The filter's own source, or the entries of its {@code sources} group,
+     * highest priority first
      */
-    private static final AtomicInteger id = new AtomicInteger(1);
-    private static ScheduledExecutorService pool = Executors.newScheduledThreadPool(1, r -> {
-        Thread thread = new Thread(r);
-        thread.setName("monitor-synonym-Thread-" + id.getAndAdd(1));
-        return thread;
-    });
-    private volatile ScheduledFuture<?> scheduledFuture;
-    private final static ConcurrentHashMap<String,CopyOnWriteArrayList<ScheduledFuture>> scheduledFutures = new ConcurrentHashMap(){};
-
-    private final String location;
-    public String url;
-    public String dbUser;
-    public String dbPass;
-    public String dbTable;
-    public String type;
-    public String style;
+    private final List<SynonymSource> sources = new ArrayList<>();
+    private final boolean composite;
 
     private final boolean expand;
     private final boolean lenient;
     private final String format;
+    private final String fstStorage;
+    private final boolean snapshot;
     private final int interval;
-    protected SynonymMap synonymMap;
-    protected Map<AbsSynonymFilter, Integer> dynamicSynonymFilters = new WeakHashMap<>();
     protected final Environment environment;
 
     public DynamicSynonymTokenFilterFactory(
@@ -73,18 +56,6 @@ public class DynamicSynonymTokenFilterFactory extends
     ) throws IOException {
         super(indexSettings, name, settings);
 
-        this.location = settings.get("synonyms_path");
-        this.url = settings.get("db_url");
-        this.dbTable = settings.get("db_table");
-        this.dbUser = settings.get("db_user");
-        this.dbPass = settings.get("db_pass");
-        this.type = settings.get("dic_type");
-        this.style = settings.get("dic_style");
-
-        if (this.location == null && this.url == null) {
-            throw new IllegalArgumentException(
-                    "dynamic synonym requires `synonyms_path || db_url` to be configured");
-        }
         if (settings.get("ignore_case") != null) {
             DEPRECATION_LOGGER.deprecated(
                 "The ignore_case option on the synonym_graph filter is deprecated. " +
@@ -95,6 +66,21 @@ public class DynamicSynonymTokenFilterFactory extends
         this.expand = settings.getAsBoolean("expand", true);
         this.lenient = settings.getAsBoolean("lenient", false);
         this.format = settings.get("format", "");
+
+        Map<String, Settings> groups = settings.getGroups("sources");
+        this.composite = !groups.isEmpty();
+        if (!composite) {
+            sources.add(new SynonymSource(null, settings, interval, format));
+        } else {
+            for (Map.Entry<String, Settings> group : groups.entrySet()) {
+                sources.add(new SynonymSource(group.getKey(), group.getValue(), interval, format));
+            }
+            // ties are broken by name, so the merge does not depend on the settings order
+            sources.sort(Comparator.comparingInt((SynonymSource source) -> -source.priority)
+                    .thenComparing(source -> source.name));
+        }
+        this.fstStorage = settings.get("fst_storage", "heap");
+        this.snapshot = settings.getAsBoolean("snapshot", false);
         boolean updateable = settings.getAsBoolean("updateable", false);
         this.environment = env;
     }
@@ -108,14 +94,21 @@ public class DynamicSynonymTokenFilterFactory extends
     }
 
     public static void closeIndDynamicSynonym(String indexName) {
-        CopyOnWriteArrayList<ScheduledFuture> futures = scheduledFutures.remove(indexName);
-        if (futures != null) {
-            for (ScheduledFuture sf : futures) {
-                sf.cancel(true);
-            }
-        }
-        logger.info("closeDynamicSynonym！ indexName:{} scheduledFutures.size:{} ",
-                indexName, scheduledFutures.size());
+        SynonymMapCache.release(indexName);
+    }
+
+    /**
+     * Rebuilds the synonym maps used by the given index and filter, or built
+     * from the given source, on this node. Null arguments match everything.
+     *
+     * @return the reloaded maps, mapped to null or the error message
+     */
+    public static Map<String, String> reloadSynonyms(String index, String filter, String source) {
+        return SynonymMapCache.reload(index, filter, source);
+    }
+
+    public static void synonymStats(XContentBuilder builder) throws IOException {
+        SynonymMapCache.toXContent(builder);
     }
 
     public TokenFilterFactory getChainAwareTokenFilterFactory(
@@ -126,7 +119,8 @@ public class DynamicSynonymTokenFilterFactory extends
     ) {
         final String name = name();
         final Analyzer analyzer = buildSynonymAnalyzer(name,tokenizer, charFilters, previousTokenFilters, allFilters);
-        synonymMap = buildSynonyms(analyzer);
+        final SynonymMapCache.Entry entry = buildSynonyms(
+                analyzer, chainFingerprint(tokenizer, charFilters, previousTokenFilters));
         return new TokenFilterFactory() {
             @Override
             public String name() {
@@ -135,14 +129,12 @@ public class DynamicSynonymTokenFilterFactory extends
 
             @Override
             public TokenStream create(TokenStream tokenStream) {
-                // fst is null means no synonyms
-                if (synonymMap.fst == null) {
-                    return tokenStream;
-                }
-                DynamicSynonymFilter dynamicSynonymFilter = new DynamicSynonymFilter(tokenStream, synonymMap, false);
-                dynamicSynonymFilters.put(dynamicSynonymFilter, 1);
-
-                return dynamicSynonymFilter;
+                // Always wrap, even while the map is empty: the analyzer reuses this
+                // stream, and the filter picks up later reloads at reset(). The
+                // analyzer's ReuseStrategy keeps one stream per thread, so this runs
+                // once per thread, not per document; the filter's buffers are kept
+                // across documents and reloads
+                return new DynamicSynonymFilter(tokenStream, entry.getHolder(), entry.getStats(), false);
             }
 
             @Override
@@ -170,59 +162,80 @@ public class DynamicSynonymTokenFilterFactory extends
         );
     }
 
-    SynonymMap buildSynonyms(Analyzer analyzer) {
-        try {
-            return getSynonymFile(analyzer).reloadSynonymMap();
-        } catch (Exception e) {
-            logger.error("failed to build synonyms", e);
-            throw new IllegalArgumentException("failed to build synonyms", e);
+    /**
+     * Identity of the synonym source, shared by every index pointing at the
+     * same file, url or database table, or at the same sources in the same order
+     * with the same priorities and intervals.
+     */
+    String sourceKey() {
+        if (!composite) {
+            return sources.get(0).key();
         }
+        StringBuilder sb = new StringBuilder();
+        for (SynonymSource source : sources) {
+            sb.append(sb.length() == 0 ? "" : " + ")
+                    .append(source.name).append('[').append(source.format)
+                    .append("|priority:").append(source.priority)
+                    .append("|interval:").append(source.interval).append("]:").append(source.key());
+        }
+        return sb.toString();
     }
 
-    SynonymFile getSynonymFile(Analyzer analyzer) {
-        try {
-            SynonymFile synonymFile;
-            if (location == null) {
-                synonymFile = new SynonymDb(
-                  environment, analyzer, expand, lenient, format, url, dbUser, dbPass, dbTable, type, style
-                );
-            } else if (location.startsWith("http://") || location.startsWith("https://")) {
-                synonymFile = new RemoteSynonymFile(
-                        environment, analyzer, expand, lenient,  format, location);
-            } else {
-                synonymFile = new LocalSynonymFile(
-                        environment, analyzer, expand, lenient, format, location);
-            }
-            if (scheduledFuture == null) {
-                scheduledFuture = pool.scheduleAtFixedRate(new Monitor(synonymFile),
-                                interval, interval, TimeUnit.SECONDS);
-                scheduledFutures.put(indexSettings.getIndex().getName(),new CopyOnWriteArrayList<ScheduledFuture>(Stream.of(scheduledFuture).collect(Collectors.toList())));
-            }
-            return synonymFile;
-        } catch (Exception e) {
-            logger.error("failed to get synonyms: " + location, e);
-            throw new IllegalArgumentException("failed to get synonyms : " + location, e);
+    /**
+     * The sources are polled at their own interval, so the composite is checked
+     * as often as its most frequently polled source.
+     */
+    private int pollInterval() {
+        int min = interval;
+        for (SynonymSource source : sources) {
+            min = Math.min(min, source.interval);
         }
+        return min;
     }
 
-    public class Monitor implements Runnable {
-
-        private SynonymFile synonymFile;
+    /**
+     * Fingerprint of everything that influences how rules are parsed: the parser
+     * options and the name and settings of each component of the analysis chain.
+     * Tokenizer factories carry no name here, so the tokenizer is identified by
+     * its class and all custom tokenizer settings of the index.
+     */
+    String chainFingerprint(TokenizerFactory tokenizer,
+            List<CharFilterFactory> charFilters,
+            List<TokenFilterFactory> tokenFilters) {
+        Settings analysis = indexSettings.getSettings().getByPrefix("index.analysis.");
+        StringBuilder sb = new StringBuilder();
+        sb.append(format).append('|').append(expand).append('|').append(lenient);
+        sb.append("|tokenizer:").append(tokenizer.getClass().getName())
+                .append(analysis.getByPrefix("tokenizer."));
+        for (CharFilterFactory charFilter : charFilters) {
+            sb.append("|char_filter:").append(charFilter.name())
+                    .append(analysis.getByPrefix("char_filter." + charFilter.name() + "."));
+        }
+        for (TokenFilterFactory tokenFilter : tokenFilters) {
+            sb.append("|filter:").append(tokenFilter.name())
+                    .append(analysis.getByPrefix("filter." + tokenFilter.name() + "."));
+        }
+        return sb.toString();
+    }
 
-        Monitor(SynonymFile synonymFile) {
-            this.synonymFile = synonymFile;
+    SynonymMapCache.Entry buildSynonyms(Analyzer analyzer, String fingerprint) {
+        try {
+            SynonymFstStore store = SynonymFstStore.create(environment, "mmap".equals(fstStorage), snapshot);
+            boolean lazy = sources.stream().allMatch(SynonymSource::isLazy);
+            return SynonymMapCache.acquire(sourceKey(), fingerprint + "|" + fstStorage,
+                    indexSettings.getIndex().getName(), name(), pollInterval(), store, lazy,
+                    () -> getSynonymFile(analyzer));
+        } catch (Exception e) {
+            logger.error("failed to build synonyms", e);
+            throw new IllegalArgumentException("failed to build synonyms", e);
         }
+    }
 
-        @Override
-        public void run() {
-            if (synonymFile.isNeedReloadSynonymMap()) {
-                synonymMap = synonymFile.reloadSynonymMap();
-                for (AbsSynonymFilter dynamicSynonymFilter : dynamicSynonymFilters.keySet()) {
-                    dynamicSynonymFilter.update(synonymMap);
-                    logger.info("success reload synonym");
-                }
-            }
+    SynonymFile getSynonymFile(Analyzer analyzer) {
+        if (!composite) {
+            return sources.get(0).open(environment, analyzer, expand, lenient);
         }
+        return new CompositeSynonymFile(environment, analyzer, expand, lenient, sources);
     }
 
 }
@@ -0,0 +1,171 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.IntsRefFSTEnum;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Bloom filter over the first term of every rule input of a map. The filters
+ * check a token against it before walking the FST, so a token that starts no
+ * rule is rejected with a few bit lookups instead of a walk from the first arc.
+ * <p>
+ * False positives only cost the FST walk that would have happened anyway; there
+ * are no false negatives.
+ */
+final class FirstTermFilter {
+
+    private static final int BITS_PER_TERM = 10;
+    private static final int HASHES = 3;
+
+    private final long[] bits;
+    private final int mask;
+
+    private FirstTermFilter(long[] bits) {
+        this.bits = bits;
+        this.mask = bits.length * Long.SIZE - 1;
+    }
+
+    /**
+     * Builds the filter from the inputs of a heap FST, or returns null if the
+     * map is empty.
+     */
+    static FirstTermFilter build(FST<BytesRef> fst) {
+        if (fst == null) {
+            return null;
+        }
+        try {
+            return build(fst, new IntsRefBuilder());
+        } catch (IOException e) {
+            // an FST on heap is not read from anywhere
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static FirstTermFilter build(FST<BytesRef> fst, IntsRefBuilder last) throws IOException {
+        // inputs are sorted and the separator sorts lowest, so the inputs
+        // sharing a first term are adjacent: count and hash each term once
+        int terms = 0;
+        IntsRefFSTEnum<BytesRef> inputs = new IntsRefFSTEnum<>(fst);
+        for (IntsRefFSTEnum.InputOutput<BytesRef> input = inputs.next(); input != null; input = inputs.next()) {
+            if (nextFirstTerm(input.input, last)) {
+                terms++;
+            }
+        }
+
+        long size = Math.max(Long.SIZE, Long.highestOneBit((long) terms * BITS_PER_TERM - 1) << 1);
+        FirstTermFilter filter = new FirstTermFilter(new long[(int) Math.min(size, 1L << 30) / Long.SIZE]);
+        last.clear();
+        inputs = new IntsRefFSTEnum<>(fst);
+        for (IntsRefFSTEnum.InputOutput<BytesRef> input = inputs.next(); input != null; input = inputs.next()) {
+            if (nextFirstTerm(input.input, last)) {
+                filter.add(last.get());
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Copies the first term of {@code input} to {@code last}, returning true if
+     * it differs from the term held before.
+     */
+    private static boolean nextFirstTerm(IntsRef input, IntsRefBuilder last) {
+        int end = input.offset;
+        while (end < input.offset + input.length && input.ints[end] != SynonymMap.WORD_SEPARATOR) {
+            end++;
+        }
+        int length = end - input.offset;
+        if (length == last.length()) {
+            boolean same = true;
+            for (int i = 0; i < length && same; i++) {
+                same = input.ints[input.offset + i] == last.intAt(i);
+            }
+            if (same) {
+                return false;
+            }
+        }
+        last.copyInts(input.ints, input.offset, length);
+        return true;
+    }
+
+    private void add(IntsRef term) {
+        long hash = 0;
+        for (int i = 0; i < term.length; i++) {
+            hash = step(hash, term.ints[term.offset + i]);
+        }
+        hash = mix(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if no rule input starts with the given token
+     */
+    boolean mightStartRule(char[] buffer, int length, boolean ignoreCase) {
+        long hash = 0;
+        for (int upto = 0; upto < length; ) {
+            int codePoint = Character.codePointAt(buffer, upto, length);
+            hash = step(hash, ignoreCase ? Character.toLowerCase(codePoint) : codePoint);
+            upto += Character.charCount(codePoint);
+        }
+        hash = mix(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a over code points
+    private static long step(long hash, int codePoint) {
+        return (hash ^ codePoint) * 0x100000001b3L;
+    }
+
+    // murmur3 finalizer, so both halves of the hash are usable
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(bits);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeVInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    static FirstTermFilter read(DataInput in) throws IOException {
+        long[] bits = new long[in.readVInt()];
+        if (Integer.bitCount(bits.length) != 1) {
+            throw new IOException("corrupt first term filter of " + bits.length + " words");
+        }
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new FirstTermFilter(bits);
+    }
+}
@@ -3,19 +3,17 @@
  */
 package com.bellszhu.elasticsearch.plugin.synonym.analysis;
 
-import org.apache.commons.codec.Charsets;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.elasticsearch.env.Environment;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -23,7 +21,7 @@ import java.nio.file.Path;
 /**
  * @author bellszhu
  */
-public class LocalSynonymFile implements SynonymFile {
+public class LocalSynonymFile implements SynonymRuleFile {
 
     private static Logger logger = LogManager.getLogger("dynamic-synonym");
 
@@ -44,7 +42,7 @@ public class LocalSynonymFile implements SynonymFile {
 
     private Path synonymFilePath;
 
-    private long lastModified;
+    private volatile long lastModified;
 
     LocalSynonymFile(Environment env, Analyzer analyzer, boolean expand, boolean lenient,
                      String format, String location) {
@@ -60,12 +58,20 @@ public class LocalSynonymFile implements SynonymFile {
     }
 
     @Override
-    public SynonymMap reloadSynonymMap() {
+    public SynonymMap reloadSynonymMap(ReloadStats stats) {
         try {
             logger.info("start reload local synonym from {}.", synonymFilePath);
-            Reader rulesReader = getReader();
-            SynonymMap.Builder parser = RemoteSynonymFile.getSynonymParser(
-                    rulesReader, format, expand, lenient, analyzer);
+            // whichever instance probes the file next starts from what was read here
+            File synonymFile = synonymFilePath.toFile();
+            if (synonymFile.exists()) {
+                lastModified = Math.max(lastModified, synonymFile.lastModified());
+            }
+            SynonymMap.Builder parser;
+            try (Reader rulesReader = getReader()) {
+                stats.fetched();
+                parser = RemoteSynonymFile.getSynonymParser(
+                        rulesReader, format, expand, lenient, analyzer, stats);
+            }
             return parser.build();
         } catch (Exception e) {
             logger.error("reload local synonym {} error!", synonymFilePath, e);
@@ -79,21 +85,16 @@ public class LocalSynonymFile implements SynonymFile {
     Just deleted when reading the file, Returns empty synonym
       keyword if file not exists.
     A small probability event.
+
+    The returned reader streams the file; the caller must close it.
     */
     @Override
     public Reader getReader() {
         if (!Files.exists(synonymFilePath)) {
             return new StringReader("");
         }
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(
-                synonymFilePath.toUri().toURL().openStream(), Charsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                // logger.info("reload local synonym: {}", line);
-                sb.append(line).append(System.getProperty("line.separator"));
-            }
-            return new StringReader(sb.toString());
+        try {
+            return Files.newBufferedReader(synonymFilePath, StandardCharsets.UTF_8);
         } catch (IOException e) {
             logger.error("get local synonym reader {} error!", location, e);
 //            throw new IllegalArgumentException(
@@ -126,6 +127,15 @@ public class LocalSynonymFile implements SynonymFile {
         return false;
     }
 
+    @Override
+    public String getVersion() {
+        File synonymFile = synonymFilePath.toFile();
+        if (!synonymFile.exists()) {
+            return null;
+        }
+        return synonymFile.lastModified() + ":" + synonymFile.length();
+    }
+
     /**
      * Deep search synonym file.
      * Step 1. Query the 'sysnonym_path' parameter as an absolute path
@@ -0,0 +1,323 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.fst.FST;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only traversal of a synonym FST saved with {@link FST#save(Path)} and
+ * memory mapped, so the FST bytes live in the page cache instead of the Java
+ * heap.
+ * <p>
+ * Lucene 7 only loads FSTs into on-heap byte blocks, so this class decodes the
+ * (unpacked, {@code BYTE4}) node format itself, mirroring
+ * {@code FST.findTargetArc} and {@code FST.readNextRealArc}. The root arc cache
+ * of the heap FST is not replicated.
+ * <p>
+ * The file is mapped through {@link MMapDirectory}, so the mapping is unmapped
+ * as soon as the last reference is released instead of whenever the buffer is
+ * garbage collected; a read after that fails with an
+ * {@link org.apache.lucene.store.AlreadyClosedException} instead of crashing
+ * the JVM. The map that publishes the FST holds one reference and every filter
+ * using it holds another one from {@code reset()} to {@code close()}.
+ */
+final class MappedSynonymFst extends SynonymFst {
+
+    private static final int BIT_FINAL_ARC = 1;
+    private static final int BIT_LAST_ARC = 1 << 1;
+    private static final int BIT_TARGET_NEXT = 1 << 2;
+    private static final int BIT_STOP_NODE = 1 << 3;
+    private static final int BIT_ARC_HAS_OUTPUT = 1 << 4;
+    private static final int BIT_ARC_HAS_FINAL_OUTPUT = 1 << 5;
+    private static final byte ARCS_AS_FIXED_ARRAY = BIT_ARC_HAS_FINAL_OUTPUT;
+
+    private static final long FINAL_END_NODE = -1;
+    private static final long NON_FINAL_END_NODE = 0;
+
+    /**
+     * {@code FST.VERSION_CURRENT} of the bundled Lucene, which is private. The
+     * node format decoded here is only known for this version.
+     */
+    static final int FST_VERSION = 6;
+
+    private final Path path;
+    private final IndexInput input;
+    private final RandomAccessInput bytes;
+    private final long startNode;
+    private final boolean deleteOnRelease;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private MappedSynonymFst(Path path, IndexInput input, RandomAccessInput bytes, long startNode,
+                             boolean deleteOnRelease) {
+        this.path = path;
+        this.input = input;
+        this.bytes = bytes;
+        this.startNode = startNode;
+        this.deleteOnRelease = deleteOnRelease;
+    }
+
+    /**
+     * Maps an FST file written by {@link FST#save(Path)}. The returned FST
+     * holds one reference.
+     *
+     * @param expectedStartNode start node of the FST that was saved, used to
+     *                          validate the parsed header
+     * @param deleteOnRelease   whether the file belongs to this map only, as
+     *                          opposed to a persisted snapshot
+     */
+    static MappedSynonymFst open(Path path, long expectedStartNode, boolean deleteOnRelease) throws IOException {
+        IndexInput input;
+        try (Directory dir = new MMapDirectory(path.getParent())) {
+            input = dir.openInput(path.getFileName().toString(), IOContext.READ);
+        }
+        boolean success = false;
+        try {
+            CodecUtil.checkHeader(input, "FST", FST_VERSION, FST_VERSION);
+            // synonym maps never have an empty-string output, and the input
+            // type must be FST.INPUT_TYPE.BYTE4
+            if (input.readByte() == 0 && input.readByte() == 2) {
+                long startNode = input.readVLong();
+                long numBytes = input.readVLong();
+                long base = input.getFilePointer();
+                if (startNode == expectedStartNode && base + numBytes == input.length()) {
+                    MappedSynonymFst mapped = new MappedSynonymFst(path, input,
+                            input.randomAccessSlice(base, numBytes), startNode, deleteOnRelease);
+                    success = true;
+                    return mapped;
+                }
+            }
+            throw new IOException("unexpected FST layout in " + path);
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(input);
+            }
+        }
+    }
+
+    /**
+     * Takes a reference for a filter, unless the last one was released already.
+     */
+    boolean tryIncRef() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+        } while (!refCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * @return true if this released the last reference, and the FST must be
+     * {@link #close() closed}
+     */
+    boolean decRef() {
+        int count = refCount.decrementAndGet();
+        assert count >= 0 : "released too often: " + path;
+        return count == 0;
+    }
+
+    /**
+     * Unmaps the file, and deletes it if it belongs to this map only.
+     */
+    void close() throws IOException {
+        try {
+            input.close();
+        } finally {
+            if (deleteOnRelease) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Override
+    Arc getFirstArc(Arc arc) {
+        arc.flags = BIT_LAST_ARC;
+        arc.output = outputs.getNoOutput();
+        arc.nextFinalOutput = outputs.getNoOutput();
+        arc.target = startNode;
+        return arc;
+    }
+
+    @Override
+    Arc findTargetArc(int label, Arc follow, Arc arc, FST.BytesReader in) throws IOException {
+        final long node = follow.target;
+        if (node <= 0) {
+            // follow is a stop node: no arcs leave it
+            return null;
+        }
+        in.setPosition(node);
+        if (in.readByte() == ARCS_AS_FIXED_ARRAY) {
+            // Arcs are full array; do binary search:
+            arc.numArcs = in.readVInt();
+            arc.bytesPerArc = in.readVInt();
+            arc.posArcsStart = in.getPosition();
+            int low = 0;
+            int high = arc.numArcs - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                in.setPosition(arc.posArcsStart);
+                in.skipBytes(arc.bytesPerArc * mid + 1);
+                int midLabel = in.readVInt();
+                if (midLabel < label) {
+                    low = mid + 1;
+                } else if (midLabel > label) {
+                    high = mid - 1;
+                } else {
+                    arc.arcIdx = mid - 1;
+                    return readNextRealArc(arc, in);
+                }
+            }
+            return null;
+        }
+
+        // Linear scan
+        arc.nextArc = node;
+        arc.bytesPerArc = 0;
+        readNextRealArc(arc, in);
+        while (true) {
+            if (arc.label == label) {
+                return arc;
+            } else if (arc.label > label || arc.isLast()) {
+                return null;
+            }
+            readNextRealArc(arc, in);
+        }
+    }
+
+    private Arc readNextRealArc(Arc arc, FST.BytesReader in) throws IOException {
+        if (arc.bytesPerArc != 0) {
+            // arcs are at fixed entries
+            arc.arcIdx++;
+            in.setPosition(arc.posArcsStart);
+            in.skipBytes(arc.arcIdx * arc.bytesPerArc);
+        } else {
+            // arcs are packed
+            in.setPosition(arc.nextArc);
+        }
+        arc.flags = in.readByte();
+        arc.label = in.readVInt();
+        arc.output = flag(arc.flags, BIT_ARC_HAS_OUTPUT) ? outputs.read(in) : outputs.getNoOutput();
+        arc.nextFinalOutput = flag(arc.flags, BIT_ARC_HAS_FINAL_OUTPUT)
+                ? outputs.readFinalOutput(in) : outputs.getNoOutput();
+
+        if (flag(arc.flags, BIT_STOP_NODE)) {
+            arc.target = flag(arc.flags, BIT_FINAL_ARC) ? FINAL_END_NODE : NON_FINAL_END_NODE;
+            arc.nextArc = in.getPosition();
+        } else if (flag(arc.flags, BIT_TARGET_NEXT)) {
+            arc.nextArc = in.getPosition();
+            if (!flag(arc.flags, BIT_LAST_ARC)) {
+                if (arc.bytesPerArc == 0) {
+                    // must scan
+                    seekToNextNode(in);
+                } else {
+                    in.setPosition(arc.posArcsStart);
+                    in.skipBytes(arc.bytesPerArc * arc.numArcs);
+                }
+            }
+            arc.target = in.getPosition();
+        } else {
+            arc.target = in.readVLong();
+            arc.nextArc = in.getPosition();
+        }
+        return arc;
+    }
+
+    private void seekToNextNode(FST.BytesReader in) throws IOException {
+        while (true) {
+            final int flags = in.readByte();
+            in.readVInt();
+            if (flag(flags, BIT_ARC_HAS_OUTPUT)) {
+                outputs.skipOutput(in);
+            }
+            if (flag(flags, BIT_ARC_HAS_FINAL_OUTPUT)) {
+                outputs.skipFinalOutput(in);
+            }
+            if (!flag(flags, BIT_STOP_NODE) && !flag(flags, BIT_TARGET_NEXT)) {
+                in.readVLong();
+            }
+            if (flag(flags, BIT_LAST_ARC)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean flag(int flags, int bit) {
+        return (flags & bit) != 0;
+    }
+
+    @Override
+    FST.BytesReader getBytesReader() {
+        return new ReverseReader(bytes);
+    }
+
+    @Override
+    long ramBytesUsed() {
+        return 0;
+    }
+
+    long mappedBytes() {
+        return input.length();
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Reads the FST bytes backwards, like Lucene's reverse bytes readers.
+     * Uses absolute reads only, so readers may share the mapped input.
+     */
+    private static final class ReverseReader extends FST.BytesReader {
+
+        private final RandomAccessInput bytes;
+        private long pos;
+
+        ReverseReader(RandomAccessInput bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            return bytes.readByte(pos--);
+        }
+
+        @Override
+        public void readBytes(byte[] b, int offset, int len) throws IOException {
+            for (int i = 0; i < len; i++) {
+                b[offset + i] = bytes.readByte(pos--);
+            }
+        }
+
+        @Override
+        public void skipBytes(long count) {
+            pos -= count;
+        }
+
+        @Override
+        public long getPosition() {
+            return pos;
+        }
+
+        @Override
+        public void setPosition(long pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public boolean reversed() {
+            return true;
+        }
+    }
+}
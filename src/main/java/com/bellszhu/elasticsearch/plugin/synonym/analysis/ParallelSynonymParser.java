@@ -0,0 +1,141 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.CharsRef;
+import org.elasticsearch.index.analysis.ESSolrSynonymParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analyzes solr formatted rules on a bounded pool of worker threads.
+ * <p>
+ * Rules are read in chunks of lines and every chunk is parsed by its own
+ * {@link ESSolrSynonymParser} on a worker, which records the analyzed mappings
+ * instead of adding them. The mappings are then replayed into the target parser
+ * chunk by chunk, in input order, so the words, ords and the compiled FST are
+ * the same as after a sequential parse. Only the analysis runs in parallel; the
+ * FST is still compiled once by {@link SynonymMap.Builder#build()}.
+ */
+final class ParallelSynonymParser {
+
+    static final int CHUNK_LINES = 8192;
+
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /**
+     * Chunks parsed ahead of the replay, bounding the memory held by recorded mappings
+     */
+    private static final int MAX_PENDING = THREADS * 2;
+
+    private static final AtomicInteger id = new AtomicInteger(1);
+    private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread thread = new Thread(r);
+        thread.setName("parse-synonym-Thread-" + id.getAndAdd(1));
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ParallelSynonymParser() {
+    }
+
+    /**
+     * Parses every rule of {@code rulesReader} into {@code target}. Input that
+     * fits in a single chunk is parsed on the calling thread. The reader is not
+     * closed.
+     */
+    static void parse(Reader rulesReader, ESSolrSynonymParser target, boolean expand, boolean lenient,
+                      Analyzer analyzer) throws IOException, ParseException {
+        BufferedReader reader = new BufferedReader(rulesReader);
+        Deque<Future<SynonymMappings>> pending = new ArrayDeque<>();
+        int line = 1;
+        try {
+            while (true) {
+                StringBuilder chunk = new StringBuilder();
+                int lines = 0;
+                String rule;
+                while (lines < CHUNK_LINES && (rule = reader.readLine()) != null) {
+                    chunk.append(rule).append('\n');
+                    lines++;
+                }
+                boolean eof = lines < CHUNK_LINES;
+                if (eof && pending.isEmpty()) {
+                    // not worth a hand-off
+                    target.parse(new StringReader(chunk.toString()));
+                    return;
+                }
+                if (lines > 0) {
+                    String rules = chunk.toString();
+                    int firstLine = line;
+                    pending.add(pool.submit(() -> analyze(rules, firstLine, expand, lenient, analyzer)));
+                }
+                line += lines;
+                while (pending.size() > MAX_PENDING || (eof && !pending.isEmpty())) {
+                    replay(pending.poll(), target);
+                }
+                if (eof) {
+                    return;
+                }
+            }
+        } finally {
+            for (Future<SynonymMappings> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static SynonymMappings analyze(String rules, int firstLine, boolean expand, boolean lenient,
+                                           Analyzer analyzer) throws IOException, ParseException {
+        SynonymMappings mappings = new SynonymMappings();
+        ESSolrSynonymParser parser = new ESSolrSynonymParser(true, expand, lenient, analyzer) {
+            @Override
+            public void add(CharsRef input, CharsRef output, boolean includeOrig) {
+                // the target applies the lenient filter and dedups when the mapping is replayed
+                mappings.add(input, output, includeOrig);
+            }
+        };
+        try {
+            parser.parse(new StringReader(rules));
+        } catch (ParseException e) {
+            // the parser counts lines from the start of the chunk
+            ParseException shifted = new ParseException(
+                    e.getMessage() + " of the chunk starting at line " + firstLine, e.getErrorOffset());
+            shifted.initCause(e.getCause());
+            throw shifted;
+        }
+        return mappings;
+    }
+
+    private static void replay(Future<SynonymMappings> chunk, SynonymMap.Builder target)
+            throws IOException, ParseException {
+        SynonymMappings mappings;
+        try {
+            mappings = chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while parsing synonyms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("failed to parse synonyms", cause);
+        }
+        mappings.replay(target);
+    }
+}
@@ -0,0 +1,51 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+/**
+ * Phases of a single reload, marked by the {@link SynonymFile} while it fetches
+ * and parses the rules. Building the FST is everything after {@link #parsed()}.
+ */
+public final class ReloadStats {
+
+    private final long start = System.nanoTime();
+    private long fetched;
+    private long parsed;
+    private long rules;
+
+    /**
+     * The rules are available to read: the query ran, the response or the file
+     * was opened.
+     */
+    public void fetched() {
+        fetched = System.nanoTime();
+    }
+
+    /**
+     * Every rule was read and analyzed.
+     */
+    public void parsed() {
+        parsed = System.nanoTime();
+    }
+
+    /**
+     * One input/output pair was added to the map.
+     */
+    public void rule() {
+        rules++;
+    }
+
+    long fetchNanos() {
+        return fetched == 0 ? 0 : fetched - start;
+    }
+
+    long parseNanos() {
+        return parsed == 0 ? 0 : parsed - (fetched == 0 ? start : fetched);
+    }
+
+    long buildNanos(long end) {
+        return end - (parsed == 0 ? start : parsed);
+    }
+
+    long rules() {
+        return rules;
+    }
+}
@@ -0,0 +1,505 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.client.methods.ZeroCopyConsumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.env.Environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Downloads a remote synonym file with conditional GETs on a shared
+ * asynchronous http client, and keeps the last content spooled to a temporary
+ * file. Every {@link RemoteSynonymFile} of the same url shares one fetcher, so
+ * the url is requested once per poll and every index reads the same copy.
+ * <p>
+ * A fetch sends the validators of the current copy ({@code If-None-Match},
+ * {@code If-Modified-Since}) and either gets 304 or the new content in the same
+ * round trip. Compressed responses are stored as received and decoded while
+ * reading; other content codings are rejected. For append-only files only the
+ * bytes after the current copy are requested with a {@code Range} header and
+ * appended to a copy of it, if the {@code Content-Range} starts right there.
+ */
+final class RemoteSynonymFetcher {
+
+    private static Logger logger = LogManager.getLogger("dynamic-synonym");
+
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+    private static final String ETAG_HEADER = "ETag";
+
+    /**
+     * How long callers that must have the content wait for a fetch
+     */
+    private static final long FETCH_TIMEOUT_SECONDS = 60;
+
+    private static final Map<String, RemoteSynonymFetcher> fetchers = new HashMap<>();
+    private static CloseableHttpAsyncClient client;
+
+    private final String key;
+    private final Environment env;
+    private final String location;
+    private final boolean appendOnly;
+    private int refCount;
+
+    private CompletableFuture<Void> inFlight;
+    private volatile long generation;
+    private Path current;
+    private String encoding;
+    private Charset charset = StandardCharsets.UTF_8;
+    /**
+     * Bytes of the spooled file, as received
+     */
+    private long length;
+    /**
+     * Length and crc32 of the decoded content
+     */
+    private long contentLength;
+    private long crc;
+    private String eTag;
+    private String lastModified;
+    /**
+     * The file shrank, the next fetch must not ask for a range
+     */
+    private boolean needFull;
+    private boolean closed;
+
+    private RemoteSynonymFetcher(String key, Environment env, String location, boolean appendOnly) {
+        this.key = key;
+        this.env = env;
+        this.location = location;
+        this.appendOnly = appendOnly;
+    }
+
+    static synchronized RemoteSynonymFetcher acquire(Environment env, String location, boolean appendOnly) {
+        if (client == null) {
+            client = AccessController.doPrivileged((PrivilegedAction<CloseableHttpAsyncClient>) () -> {
+                RequestConfig rc = RequestConfig.custom()
+                        .setConnectionRequestTimeout(10 * 1000)
+                        .setConnectTimeout(10 * 1000).setSocketTimeout(60 * 1000)
+                        .build();
+                CloseableHttpAsyncClient started = HttpAsyncClients.custom()
+                        .setDefaultRequestConfig(rc)
+                        .setMaxConnPerRoute(4)
+                        .setMaxConnTotal(32)
+                        .build();
+                started.start();
+                return started;
+            });
+        }
+        String key = location + "|" + appendOnly;
+        RemoteSynonymFetcher fetcher = fetchers.computeIfAbsent(key,
+                k -> new RemoteSynonymFetcher(k, env, location, appendOnly));
+        fetcher.refCount++;
+        return fetcher;
+    }
+
+    void release() {
+        CloseableHttpAsyncClient stopped = null;
+        synchronized (RemoteSynonymFetcher.class) {
+            if (--refCount > 0) {
+                return;
+            }
+            fetchers.remove(key);
+            if (fetchers.isEmpty()) {
+                stopped = client;
+                client = null;
+            }
+        }
+        synchronized (this) {
+            closed = true;
+            if (inFlight != null) {
+                inFlight.cancel(false);
+            }
+            delete(current);
+            current = null;
+        }
+        if (stopped != null) {
+            try {
+                stopped.close();
+            } catch (IOException e) {
+                logger.error("failed to close http client", e);
+            }
+        }
+    }
+
+    /**
+     * Bumped every time new content is spooled.
+     */
+    long generation() {
+        return generation;
+    }
+
+    /**
+     * Starts a fetch unless one is running. Never blocks: the result shows up
+     * in {@link #generation()} once the response arrived.
+     */
+    void poll() {
+        fetch();
+    }
+
+    /**
+     * Fetches and waits for the response, for callers that may block.
+     */
+    void fetchNow() throws IOException {
+        try {
+            fetch().get(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while fetching " + location, e);
+        } catch (ExecutionException e) {
+            throw new IOException("failed to fetch " + location, e.getCause());
+        } catch (TimeoutException | CancellationException e) {
+            throw new IOException("failed to fetch " + location, e);
+        }
+    }
+
+    /**
+     * Version of the spooled content: its validators and checksum, or null if
+     * nothing was fetched yet.
+     */
+    synchronized String version() {
+        if (current == null) {
+            return null;
+        }
+        return eTag + "|" + lastModified + "|" + contentLength + ":" + Long.toHexString(crc);
+    }
+
+    /**
+     * Opens the spooled content, or an empty reader if nothing was fetched.
+     * The caller must close the reader.
+     */
+    synchronized Reader openReader() throws IOException {
+        if (current == null) {
+            return new StringReader("");
+        }
+        Path path = current;
+        InputStream in = privileged(() -> Files.newInputStream(path));
+        try {
+            return new InputStreamReader(decode(in, encoding), charset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private synchronized CompletableFuture<Void> fetch() {
+        if (inFlight != null) {
+            return inFlight;
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CloseableHttpAsyncClient http;
+        synchronized (RemoteSynonymFetcher.class) {
+            http = client;
+        }
+        if (http == null) {
+            done.completeExceptionally(new IOException("fetcher of " + location + " is closed"));
+            return done;
+        }
+        Path part;
+        try {
+            part = privileged(() -> Files.createTempFile(env.tmpFile(), "dynamic-synonym-", ".part"));
+        } catch (IOException e) {
+            done.completeExceptionally(e);
+            return done;
+        }
+
+        HttpGet get = new HttpGet(location);
+        if (eTag != null) {
+            get.setHeader("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            get.setHeader("If-Modified-Since", lastModified);
+        }
+        boolean ranged = appendOnly && current != null && !needFull && encoding == null;
+        if (ranged) {
+            // ranges of an encoded body can not be appended to the decoded copy
+            get.setHeader("Accept-Encoding", "identity");
+            get.setHeader("Range", "bytes=" + length + "-");
+        } else {
+            get.setHeader("Accept-Encoding", "gzip, deflate");
+        }
+
+        ZeroCopyConsumer<HttpResponse> consumer;
+        try {
+            consumer = new ZeroCopyConsumer<HttpResponse>(part.toFile()) {
+                @Override
+                protected HttpResponse process(HttpResponse response, File file, ContentType contentType) {
+                    return response;
+                }
+            };
+        } catch (IOException e) {
+            delete(part);
+            done.completeExceptionally(e);
+            return done;
+        }
+        inFlight = done;
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            http.execute(HttpAsyncMethods.create(get), consumer, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    try {
+                        handle(response, part, ranged);
+                        finish(done, null);
+                    } catch (Exception e) {
+                        finish(done, e);
+                    } finally {
+                        delete(part);
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    delete(part);
+                    logger.error("Unable to execute HTTP request.", e);
+                    finish(done, e);
+                }
+
+                @Override
+                public void cancelled() {
+                    delete(part);
+                    finish(done, new CancellationException("fetch of " + location + " was cancelled"));
+                }
+            });
+            return null;
+        });
+        return done;
+    }
+
+    private void finish(CompletableFuture<Void> done, Exception e) {
+        synchronized (this) {
+            if (inFlight == done) {
+                inFlight = null;
+            }
+        }
+        if (e == null) {
+            done.complete(null);
+        } else {
+            done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Runs on the http client's I/O thread.
+     */
+    private void handle(HttpResponse response, Path part, boolean ranged) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        if (status == 304) {
+            return;
+        }
+        if (status == 206 && ranged) {
+            long start = rangeStart(response);
+            long expected;
+            synchronized (this) {
+                expected = length;
+            }
+            if (start != expected || encodingOf(response) != null) {
+                // not the bytes after our copy: take the whole file next time
+                logger.info("remote synonym {} returned range {} instead of the bytes after {}, fetching it whole",
+                        location, response.getFirstHeader("Content-Range"), expected);
+                synchronized (this) {
+                    needFull = true;
+                }
+                return;
+            }
+            Path next = privileged(() -> {
+                Path copy = Files.createTempFile(env.tmpFile(), "dynamic-synonym-", ".txt");
+                synchronized (this) {
+                    Files.copy(current, copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+                try (OutputStream out = Files.newOutputStream(copy, StandardOpenOption.APPEND)) {
+                    Files.copy(part, out);
+                }
+                return copy;
+            });
+            publish(response, next, null);
+            return;
+        }
+        if (status == 416 && ranged) {
+            // nothing after our copy; a smaller total length means the file was rewritten
+            Header contentRange = response.getFirstHeader("Content-Range");
+            String value = contentRange == null ? null : contentRange.getValue();
+            int slash = value == null ? -1 : value.lastIndexOf('/');
+            if (slash >= 0) {
+                try {
+                    if (Long.parseLong(value.substring(slash + 1).trim()) < length) {
+                        synchronized (this) {
+                            needFull = true;
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    logger.info("remote synonym {} returned unexpected Content-Range {}", location, value);
+                }
+            }
+            return;
+        }
+        if (status != 200) {
+            logger.info("remote synonym {} return bad code {}", location, status);
+            return;
+        }
+        String enc = encodingOf(response);
+        if (enc != null && !"gzip".equals(enc) && !"x-gzip".equals(enc) && !"deflate".equals(enc)) {
+            // only gzip and deflate are asked for; keep the current copy
+            logger.warn("remote synonym {} returned unsupported Content-Encoding {}", location, enc);
+            return;
+        }
+        Path next = privileged(() -> {
+            Path spooled = Files.createTempFile(env.tmpFile(), "dynamic-synonym-", ".txt");
+            Files.move(part, spooled, StandardCopyOption.REPLACE_EXISTING);
+            return spooled;
+        });
+        publish(response, next, enc);
+    }
+
+    /**
+     * @return the content coding of the body, or null if it is not encoded
+     */
+    private static String encodingOf(HttpResponse response) {
+        Header contentEncoding = response.getFirstHeader("Content-Encoding");
+        String received = contentEncoding == null ? null : contentEncoding.getValue().trim().toLowerCase(Locale.ROOT);
+        return received == null || received.isEmpty() || "identity".equals(received) ? null : received;
+    }
+
+    /**
+     * @return the first byte position of a {@code bytes <first>-<last>/<length>}
+     * Content-Range, or -1 if there is none or it does not parse
+     */
+    private static long rangeStart(HttpResponse response) {
+        Header contentRange = response.getFirstHeader("Content-Range");
+        String value = contentRange == null ? "" : contentRange.getValue().trim();
+        int dash = value.indexOf('-');
+        if (!value.startsWith("bytes ") || dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void publish(HttpResponse response, Path next, String enc) throws IOException {
+        long[] checksum = checksum(next, enc);
+        Header lastModifiedHeader = response.getFirstHeader(LAST_MODIFIED_HEADER);
+        Header eTagHeader = response.getFirstHeader(ETAG_HEADER);
+        Charset responseCharset = StandardCharsets.UTF_8; // 获取编码，默认为utf-8
+        ContentType contentType = ContentType.get(response.getEntity());
+        if (contentType != null && contentType.getCharset() != null) {
+            responseCharset = contentType.getCharset();
+        }
+        Path previous;
+        synchronized (this) {
+            boolean unchanged = closed
+                    || current != null && checksum[1] == contentLength && checksum[0] == crc;
+            eTag = eTagHeader == null ? null : eTagHeader.getValue();
+            lastModified = lastModifiedHeader == null ? null : lastModifiedHeader.getValue();
+            needFull = false;
+            if (unchanged) {
+                // the server ignored the conditional headers, or no index reads the url any more
+                previous = next;
+            } else {
+                previous = current;
+                current = next;
+                encoding = enc;
+                charset = responseCharset;
+                length = rawLength(next);
+                contentLength = checksum[1];
+                crc = checksum[0];
+                generation++;
+            }
+        }
+        delete(previous);
+        if (previous != next) {
+            logger.info("fetched remote synonym {} ({} bytes)", location, checksum[1]);
+        }
+    }
+
+    /**
+     * @return the crc32 and length of the decoded content
+     */
+    private long[] checksum(Path path, String enc) throws IOException {
+        return privileged(() -> {
+            CRC32 crc32 = new CRC32();
+            long total = 0;
+            try (InputStream in = new CheckedInputStream(decode(Files.newInputStream(path), enc), crc32)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    total += read;
+                }
+            }
+            return new long[]{crc32.getValue(), total};
+        });
+    }
+
+    private long rawLength(Path path) throws IOException {
+        return privileged(() -> Files.size(path));
+    }
+
+    private static InputStream decode(InputStream in, String enc) throws IOException {
+        if ("gzip".equals(enc) || "x-gzip".equals(enc)) {
+            return new GZIPInputStream(in);
+        } else if ("deflate".equals(enc)) {
+            return new InflaterInputStream(in);
+        }
+        return in;
+    }
+
+    private static void delete(Path path) {
+        if (path == null) {
+            return;
+        }
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("failed to delete {}", path, e);
+            }
+            return null;
+        });
+    }
+
+    private static <T> T privileged(PrivilegedExceptionAction<T> action) throws IOException {
+        try {
+            return AccessController.doPrivileged(action);
+        } catch (PrivilegedActionException e) {
+            throw (IOException) e.getException();
+        }
+    }
+}
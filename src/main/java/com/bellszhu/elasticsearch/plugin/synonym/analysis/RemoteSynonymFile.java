@@ -3,38 +3,25 @@
  */
 package com.bellszhu.elasticsearch.plugin.synonym.analysis;
 
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpHead;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.CharsRef;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.analysis.ESSolrSynonymParser;
 import org.elasticsearch.index.analysis.ESWordnetSynonymParser;
 
 import java.io.*;
-import java.security.AccessController;
-import java.security.PrivilegedAction;
 import java.text.ParseException;
 
 /**
  * @author bellszhu
  */
-public class RemoteSynonymFile implements SynonymFile {
-
-    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
-    private static final String ETAG_HEADER = "ETag";
+public class RemoteSynonymFile implements SynonymRuleFile {
 
     private static Logger logger = LogManager.getLogger("dynamic-synonym");
 
-    private CloseableHttpClient httpclient;
-
     private String format;
 
     private boolean expand;
@@ -50,12 +37,23 @@ public class RemoteSynonymFile implements SynonymFile {
      */
     private String location;
 
-    private String lastModified;
+    private RemoteSynonymFetcher fetcher;
 
-    private String eTags;
+    /**
+     * Generation of the fetched content last read by this instance
+     */
+    private volatile long seenGeneration;
 
     RemoteSynonymFile(Environment env, Analyzer analyzer,
                       boolean expand, boolean lenient, String format, String location) {
+        this(env, analyzer, expand, lenient, format, location, false);
+    }
+
+    /**
+     * @param appendOnly the file only grows, so only the new bytes are requested
+     */
+    RemoteSynonymFile(Environment env, Analyzer analyzer,
+                      boolean expand, boolean lenient, String format, String location, boolean appendOnly) {
         this.analyzer = analyzer;
         this.expand = expand;
         this.lenient = lenient;
@@ -63,34 +61,52 @@ public class RemoteSynonymFile implements SynonymFile {
         this.env = env;
         this.location = location;
 
-        this.httpclient = AccessController.doPrivileged((PrivilegedAction<CloseableHttpClient>) HttpClients::createDefault);
-
-        isNeedReloadSynonymMap();
+        this.fetcher = RemoteSynonymFetcher.acquire(env, location, appendOnly);
     }
 
-    static SynonymMap.Builder getSynonymParser(
-            Reader rulesReader, String format, boolean expand, boolean lenient, Analyzer analyzer
+    /**
+     * Parses the rules into a builder, counting every rule added into {@code stats}.
+     * Solr formatted rules are analyzed in parallel, see {@link ParallelSynonymParser};
+     * wordnet synsets span several lines and are parsed sequentially.
+     */
+    public static SynonymMap.Builder getSynonymParser(
+            Reader rulesReader, String format, boolean expand, boolean lenient, Analyzer analyzer,
+            ReloadStats stats
     ) throws IOException, ParseException {
         SynonymMap.Builder parser;
         if ("wordnet".equalsIgnoreCase(format)) {
-            parser = new ESWordnetSynonymParser(true, expand, lenient, analyzer);
+            parser = new ESWordnetSynonymParser(true, expand, lenient, analyzer) {
+                @Override
+                public void add(CharsRef input, CharsRef output, boolean includeOrig) {
+                    super.add(input, output, includeOrig);
+                    stats.rule();
+                }
+            };
             ((ESWordnetSynonymParser) parser).parse(rulesReader);
         } else {
-            parser = new ESSolrSynonymParser(true, expand, lenient, analyzer);
-            ((ESSolrSynonymParser) parser).parse(rulesReader);
+            parser = new ESSolrSynonymParser(true, expand, lenient, analyzer) {
+                @Override
+                public void add(CharsRef input, CharsRef output, boolean includeOrig) {
+                    super.add(input, output, includeOrig);
+                    stats.rule();
+                }
+            };
+            ParallelSynonymParser.parse(rulesReader, (ESSolrSynonymParser) parser, expand, lenient, analyzer);
         }
+        stats.parsed();
         return parser;
     }
 
     @Override
-    public SynonymMap reloadSynonymMap() {
+    public SynonymMap reloadSynonymMap(ReloadStats stats) {
         Reader rulesReader = null;
         try {
             logger.info("start reload remote synonym from {}.", location);
             rulesReader = getReader();
+            stats.fetched();
             SynonymMap.Builder parser;
 
-            parser = getSynonymParser(rulesReader, format, expand, lenient, analyzer);
+            parser = getSynonymParser(rulesReader, format, expand, lenient, analyzer, stats);
             return parser.build();
         } catch (Exception e) {
             logger.error("reload remote synonym {} error!", location, e);
@@ -108,127 +124,64 @@ public class RemoteSynonymFile implements SynonymFile {
         }
     }
 
-    private CloseableHttpResponse executeHttpRequest(HttpUriRequest httpUriRequest) {
-        return AccessController.doPrivileged((PrivilegedAction<CloseableHttpResponse>) () -> {
+    /**
+     * Reads the last fetched content. Usually a poll already fetched it in the
+     * background; if nothing new arrived since this instance last read, this is
+     * the first load or an explicit reload, and the url is fetched right away.
+     * The caller must close the reader.
+     */
+    @Override
+    public Reader getReader() {
+        if (fetcher.generation() == seenGeneration) {
             try {
-                return httpclient.execute(httpUriRequest);
+                fetcher.fetchNow();
             } catch (IOException e) {
-                logger.error("Unable to execute HTTP request.", e);
+                // keep serving the last fetched copy, if any
+                logger.error("get remote synonym reader {} error!", location, e);
             }
-            return null;
-        });
+        }
+        // read the generation first: a newer copy read here only costs one more reload
+        seenGeneration = fetcher.generation();
+        try {
+            return fetcher.openReader();
+        } catch (IOException e) {
+            logger.error("get remote synonym reader {} error!", location, e);
+            // Fix #54 Returns blank if synonym file has be deleted.
+            return new StringReader("");
+        }
     }
 
     /**
-     * Download custom terms from a remote server
+     * Validators and checksum of the fetched content. Fetches it first on a
+     * node that has not read the url yet.
      */
     @Override
-    public Reader getReader() {
-        Reader reader;
-        RequestConfig rc = RequestConfig.custom()
-                .setConnectionRequestTimeout(10 * 1000)
-                .setConnectTimeout(10 * 1000).setSocketTimeout(60 * 1000)
-                .build();
-        CloseableHttpResponse response;
-        BufferedReader br = null;
-        HttpGet get = new HttpGet(location);
-        get.setConfig(rc);
-        try {
-            response = executeHttpRequest(get);
-            if (response.getStatusLine().getStatusCode() == 200) {
-                String charset = "UTF-8"; // 获取编码，默认为utf-8
-                if (response.getEntity().getContentType().getValue()
-                        .contains("charset=")) {
-                    String contentType = response.getEntity().getContentType()
-                            .getValue();
-                    charset = contentType.substring(contentType
-                            .lastIndexOf('=') + 1);
-                }
-
-                br = new BufferedReader(new InputStreamReader(response
-                        .getEntity().getContent(), charset));
-                StringBuilder sb = new StringBuilder();
-                String line;
-                int count = 0;
-                while ((line = br.readLine()) != null) {
-                    count++;
-                    sb.append(line)
-                            .append(System.getProperty("line.separator"));
-                }
-                logger.info("reload {} lines", count);
-                reader = new StringReader(sb.toString());
-            } else {
-                reader = new StringReader("");
-            }
-        } catch (Exception e) {
-            logger.error("get remote synonym reader {} error!", location, e);
-//            throw new IllegalArgumentException(
-//                    "Exception while reading remote synonyms file", e);
-            // Fix #54 Returns blank if synonym file has be deleted.
-            reader = new StringReader("");
-        } finally {
+    public String getVersion() {
+        if (fetcher.generation() == 0) {
             try {
-                if (br != null) {
-                    br.close();
-                }
+                fetcher.fetchNow();
             } catch (IOException e) {
-                logger.error("failed to close bufferedReader", e);
+                logger.error("get remote synonym version {} error!", location, e);
+                return null;
             }
         }
-        return reader;
+        // a snapshot of this version stands for the content read
+        seenGeneration = fetcher.generation();
+        return fetcher.version();
     }
 
+    /**
+     * Starts a conditional GET in the background and reports content that an
+     * earlier one fetched, so the monitor thread never waits for the server.
+     */
     @Override
     public boolean isNeedReloadSynonymMap() {
-        RequestConfig rc = RequestConfig.custom()
-                .setConnectionRequestTimeout(10 * 1000)
-                .setConnectTimeout(10 * 1000).setSocketTimeout(15 * 1000)
-                .build();
-        HttpHead head = AccessController.doPrivileged((PrivilegedAction<HttpHead>) () -> new HttpHead(location));
-        head.setConfig(rc);
-
-        // 设置请求头
-        if (lastModified != null) {
-            head.setHeader("If-Modified-Since", lastModified);
-        }
-        if (eTags != null) {
-            head.setHeader("If-None-Match", eTags);
-        }
+        fetcher.poll();
+        return fetcher.generation() != seenGeneration;
+    }
 
-        CloseableHttpResponse response = null;
-        try {
-            response = executeHttpRequest(head);
-            if (response == null) {
-                return false;
-            }
-            if (response.getStatusLine().getStatusCode() == 200) { // 返回200 才做操作
-                if (!response.getLastHeader(LAST_MODIFIED_HEADER).getValue()
-                        .equalsIgnoreCase(lastModified)
-                        || !response.getLastHeader(ETAG_HEADER).getValue()
-                        .equalsIgnoreCase(eTags)) {
-
-                    lastModified = response.getLastHeader(LAST_MODIFIED_HEADER) == null ? null
-                            : response.getLastHeader(LAST_MODIFIED_HEADER)
-                            .getValue();
-                    eTags = response.getLastHeader(ETAG_HEADER) == null ? null
-                            : response.getLastHeader(ETAG_HEADER).getValue();
-                    return true;
-                }
-            } else if (response.getStatusLine().getStatusCode() == 304) {
-                return false;
-            } else {
-                logger.info("remote synonym {} return bad code {}", location,
-                        response.getStatusLine().getStatusCode());
-            }
-        } finally {
-            try {
-                if (response != null) {
-                    response.close();
-                }
-            } catch (IOException e) {
-                logger.error("failed to close http response", e);
-            }
-        }
-        return false;
+    @Override
+    public void close() {
+        fetcher.release();
     }
 }
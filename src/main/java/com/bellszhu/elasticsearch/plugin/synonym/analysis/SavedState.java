@@ -0,0 +1,53 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.util.AttributeSource;
+
+/**
+ * The attributes of a buffered token, kept in a clone of the filter's
+ * attributes. The clone is made on the first capture and then copied into and
+ * out of in place, so buffering a token does not allocate a new
+ * {@link AttributeSource.State} chain each time.
+ */
+final class SavedState {
+
+    private AttributeSource saved;
+    private boolean captured;
+
+    void capture(AttributeSource source) {
+        if (saved != null) {
+            try {
+                source.copyTo(saved);
+                captured = true;
+                return;
+            } catch (IllegalArgumentException e) {
+                // an attribute was added after the clone was made
+            }
+        }
+        saved = source.cloneAttributes();
+        captured = true;
+    }
+
+    /**
+     * Captures the state saved by {@code other}, which must be captured.
+     */
+    void capture(SavedState other) {
+        assert other.captured;
+        capture(other.saved);
+    }
+
+    void restore(AttributeSource target) {
+        assert captured;
+        saved.copyTo(target);
+    }
+
+    boolean isCaptured() {
+        return captured;
+    }
+
+    /**
+     * Forgets the captured token, keeping the clone for the next capture.
+     */
+    void clear() {
+        captured = false;
+    }
+}
@@ -5,17 +5,33 @@ package com.bellszhu.elasticsearch.plugin.synonym.analysis;
 
 import org.apache.lucene.analysis.synonym.SynonymMap;
 
-import java.io.Reader;
-
 /**
  * @author bellszhu
  */
 public interface SynonymFile {
 
-    SynonymMap reloadSynonymMap();
+    /**
+     * Fetches and parses the rules and builds the map.
+     *
+     * @param stats receives the phase timings and the rule count
+     */
+    SynonymMap reloadSynonymMap(ReloadStats stats);
 
     boolean isNeedReloadSynonymMap();
 
-    Reader getReader();
+    /**
+     * Version of the content the next reload would read, used to validate
+     * persisted snapshots. Returns null when the source can not tell, in which
+     * case no snapshot is written or loaded.
+     */
+    default String getVersion() {
+        return null;
+    }
+
+    /**
+     * Called once no index uses the synonyms any more.
+     */
+    default void close() {
+    }
 
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.Outputs;
+
+import java.io.IOException;
+
+/**
+ * The part of the synonym FST the filters walk: the first arc, label lookups
+ * and the outputs. Backed either by Lucene's on-heap {@link FST} or by a memory
+ * mapped copy of the same bytes.
+ */
+abstract class SynonymFst {
+
+    final Outputs<BytesRef> outputs = ByteSequenceOutputs.getSingleton();
+
+    abstract Arc getFirstArc(Arc arc);
+
+    /**
+     * Finds the arc leaving {@code follow}'s target with the given label,
+     * or returns null. {@code follow} and {@code arc} may be the same instance.
+     */
+    abstract Arc findTargetArc(int label, Arc follow, Arc arc, FST.BytesReader in) throws IOException;
+
+    abstract FST.BytesReader getBytesReader();
+
+    /**
+     * @return heap bytes held by this FST
+     */
+    abstract long ramBytesUsed();
+
+    static final class Arc {
+
+        static final int BIT_FINAL_ARC = 1;
+        static final int BIT_LAST_ARC = 1 << 1;
+
+        int label;
+        BytesRef output;
+        BytesRef nextFinalOutput;
+        long target;
+        byte flags;
+
+        // Only used by the mapped FST:
+        long nextArc;
+        long posArcsStart;
+        int bytesPerArc;
+        int arcIdx;
+        int numArcs;
+
+        // Only used by the heap FST:
+        final FST.Arc<BytesRef> luceneArc = new FST.Arc<>();
+
+        boolean isFinal() {
+            return (flags & BIT_FINAL_ARC) != 0;
+        }
+
+        boolean isLast() {
+            return (flags & BIT_LAST_ARC) != 0;
+        }
+    }
+
+    static final class Heap extends SynonymFst {
+
+        private final FST<BytesRef> fst;
+
+        Heap(FST<BytesRef> fst) {
+            this.fst = fst;
+        }
+
+        @Override
+        Arc getFirstArc(Arc arc) {
+            return copy(fst.getFirstArc(arc.luceneArc), arc);
+        }
+
+        @Override
+        Arc findTargetArc(int label, Arc follow, Arc arc, FST.BytesReader in) throws IOException {
+            FST.Arc<BytesRef> result = fst.findTargetArc(label, follow.luceneArc, arc.luceneArc, in);
+            return result == null ? null : copy(result, arc);
+        }
+
+        private static Arc copy(FST.Arc<BytesRef> from, Arc arc) {
+            arc.label = from.label;
+            arc.output = from.output;
+            arc.nextFinalOutput = from.nextFinalOutput;
+            arc.target = from.target;
+            arc.flags = (byte) ((from.isFinal() ? Arc.BIT_FINAL_ARC : 0) | (from.isLast() ? Arc.BIT_LAST_ARC : 0));
+            return arc;
+        }
+
+        @Override
+        FST.BytesReader getBytesReader() {
+            return fst.getBytesReader();
+        }
+
+        @Override
+        long ramBytesUsed() {
+            return fst.ramBytesUsed();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.env.Environment;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides where compiled synonym maps live.
+ * <p>
+ * The FST is kept on the Java heap by default, or written once per build under
+ * the node data path and memory mapped ({@code fst_storage: mmap}). With
+ * {@code snapshot: true} every build is also persisted there together with the
+ * version of the source it was built from, so that a restarted node can load the
+ * compiled map directly instead of fetching and parsing the rules again.
+ * <p>
+ * Snapshots are stored as {@code <sha1(key)>.fst} plus {@code <sha1(key)>.meta};
+ * the meta file is moved in last, so its presence marks a complete snapshot.
+ * The two moves are not atomic together, so the meta also holds the checksum
+ * of the FST it was written with, and a pair that does not match is rebuilt.
+ * Per-build mapped files are named {@code <sha1(key)>-<n>.fst} and removed once
+ * no filter uses them any more, or at the next node start. Snapshots of keys
+ * that are no longer loaded expire after {@link #SNAPSHOT_RETENTION_DAYS} days.
+ */
+final class SynonymFstStore {
+
+    private static Logger logger = LogManager.getLogger("dynamic-synonym");
+
+    private static final String SNAPSHOT_CODEC = "dynamic_synonym_snapshot";
+    private static final int SNAPSHOT_VERSION_START = 1;
+    /**
+     * Adds the first term filter of the map
+     */
+    private static final int SNAPSHOT_VERSION_FIRST_TERMS = 2;
+    /**
+     * Adds the checksum of the FST file, and a footer to the meta file
+     */
+    private static final int SNAPSHOT_VERSION_CHECKSUMS = 3;
+    private static final int SNAPSHOT_VERSION = SNAPSHOT_VERSION_CHECKSUMS;
+
+    /**
+     * Snapshots neither loaded nor written for this long are removed at node start
+     */
+    static final int SNAPSHOT_RETENTION_DAYS = 30;
+
+    private static final SynonymFstStore HEAP = new SynonymFstStore(null, false, false);
+    private static final AtomicLong fileId = new AtomicLong();
+    private static final Set<Path> cleaned = ConcurrentHashMap.newKeySet();
+
+    private final Path directory;
+    private final boolean mmap;
+    private final boolean snapshot;
+
+    private SynonymFstStore(Path directory, boolean mmap, boolean snapshot) {
+        this.directory = directory;
+        this.mmap = mmap;
+        this.snapshot = snapshot;
+    }
+
+    static SynonymFstStore heap() {
+        return HEAP;
+    }
+
+    static SynonymFstStore create(Environment env, boolean mmap, boolean snapshot) {
+        if (!mmap && !snapshot) {
+            return HEAP;
+        }
+        return new SynonymFstStore(env.dataFiles()[0].resolve("dynamic_synonym"), mmap, snapshot);
+    }
+
+    boolean isSnapshotEnabled() {
+        return snapshot;
+    }
+
+    /**
+     * Loads the snapshot of {@code key} if it was built from the given source
+     * version, or returns null.
+     */
+    CompiledSynonymMap loadSnapshot(String key, String version) {
+        if (!snapshot || version == null) {
+            return null;
+        }
+        try {
+            CompiledSynonymMap loaded = AccessController.doPrivileged(
+                    (PrivilegedExceptionAction<CompiledSynonymMap>) () -> readSnapshot(key, version));
+            if (loaded != null) {
+                logger.info("loaded synonym snapshot for {} at version {}", key, version);
+            }
+            return loaded;
+        } catch (PrivilegedActionException | RuntimeException e) {
+            logger.warn("failed to load synonym snapshot for {}, rebuilding", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Wraps a freshly built map, mapping its FST and persisting a snapshot as
+     * configured. Never fails: problems with the data path fall back to the heap.
+     *
+     * @param version version of the source the map was built from, may be null
+     */
+    CompiledSynonymMap compile(String key, String version, SynonymMap map) {
+        if (directory == null) {
+            return new CompiledSynonymMap(map, map.fst == null ? null : new SynonymFst.Heap(map.fst));
+        }
+        try {
+            return AccessController.doPrivileged(
+                    (PrivilegedExceptionAction<CompiledSynonymMap>) () -> write(key, version, map));
+        } catch (PrivilegedActionException | RuntimeException e) {
+            logger.warn("failed to store synonym fst for {}, keeping it on heap", key, e);
+            return new CompiledSynonymMap(map, map.fst == null ? null : new SynonymFst.Heap(map.fst));
+        }
+    }
+
+    private CompiledSynonymMap write(String key, String version, SynonymMap map) throws IOException {
+        Files.createDirectories(directory);
+        clean(directory);
+        try (Directory dir = new NIOFSDirectory(directory)) {
+            return write(dir, key, version, map);
+        }
+    }
+
+    private CompiledSynonymMap write(Directory dir, String key, String version, SynonymMap map) throws IOException {
+        String hash = hash(key);
+        long startNode = map.fst == null ? -1 : map.fst.getFirstArc(new FST.Arc<>()).target;
+        // built while the fst is still on heap, a mapped copy cannot be enumerated
+        FirstTermFilter firstTerms = FirstTermFilter.build(map.fst);
+
+        Path fstPath = null;
+        long fstChecksum = 0;
+        boolean persisted = snapshot && version != null;
+        if (map.fst != null && (persisted || mmap)) {
+            Path tmp = directory.resolve(hash + "-" + fileId.incrementAndGet() + ".fst");
+            try (IndexOutput out = dir.createOutput(tmp.getFileName().toString(), IOContext.DEFAULT)) {
+                // the same bytes as FST.save(Path), without a footer the mapped reader would see
+                map.fst.save(out);
+                fstChecksum = out.getChecksum();
+            }
+            if (persisted) {
+                fstPath = directory.resolve(hash + ".fst");
+                // rename, never rewrite in place: older maps may still be mapped
+                Files.move(tmp, fstPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                fstPath = tmp;
+            }
+        }
+        if (persisted) {
+            writeMeta(dir, hash, key, version, map, startNode, fstChecksum, firstTerms);
+        }
+
+        if (map.fst == null) {
+            return new CompiledSynonymMap(map, null, null);
+        }
+        if (!mmap) {
+            return new CompiledSynonymMap(map, new SynonymFst.Heap(map.fst), firstTerms);
+        }
+        MappedSynonymFst mapped = MappedSynonymFst.open(fstPath, startNode, !persisted);
+        logger.info("memory mapped synonym fst {} ({} bytes) for {}", fstPath, mapped.mappedBytes(), key);
+        return new CompiledSynonymMap(new SynonymMap(null, map.words, map.maxHorizontalContext), mapped,
+                firstTerms);
+    }
+
+    private void writeMeta(Directory dir, String hash, String key, String version, SynonymMap map, long startNode,
+                           long fstChecksum, FirstTermFilter firstTerms) throws IOException {
+        Path tmp = directory.resolve(hash + "-" + fileId.incrementAndGet() + ".meta");
+        try (IndexOutput out = dir.createOutput(tmp.getFileName().toString(), IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(out, SNAPSHOT_CODEC, SNAPSHOT_VERSION);
+            out.writeString(key);
+            out.writeString(version);
+            out.writeVInt(map.maxHorizontalContext);
+            out.writeZLong(startNode);
+            out.writeLong(fstChecksum);
+            BytesRef scratch = new BytesRef();
+            int size = map.words == null ? 0 : map.words.size();
+            out.writeVInt(size);
+            for (int ord = 0; ord < size; ord++) {
+                map.words.get(ord, scratch);
+                out.writeVInt(scratch.length);
+                out.writeBytes(scratch.bytes, scratch.offset, scratch.length);
+            }
+            out.writeByte((byte) (firstTerms == null ? 0 : 1));
+            if (firstTerms != null) {
+                firstTerms.write(out);
+            }
+            CodecUtil.writeFooter(out);
+        }
+        Files.move(tmp, directory.resolve(hash + ".meta"),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Runs once per directory and node start, before anything in it is read or
+     * written: removes the per-build and temporary files left behind by the
+     * previous run, and the snapshots no cache entry loaded or wrote for
+     * {@link #SNAPSHOT_RETENTION_DAYS} days.
+     */
+    private static void clean(Path directory) throws IOException {
+        synchronized (cleaned) {
+            if (!cleaned.add(directory) || !Files.isDirectory(directory)) {
+                return;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*-*.{fst,meta}")) {
+                for (Path stale : stream) {
+                    Files.deleteIfExists(stale);
+                }
+            }
+            long expired = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(SNAPSHOT_RETENTION_DAYS);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.meta")) {
+                for (Path meta : stream) {
+                    if (Files.getLastModifiedTime(meta).toMillis() < expired) {
+                        String name = meta.getFileName().toString();
+                        // meta first: a snapshot without it is never read
+                        Files.deleteIfExists(meta);
+                        Files.deleteIfExists(directory.resolve(name.substring(0, name.length() - 5) + ".fst"));
+                        logger.info("removed synonym snapshot {} unused for {} days", name, SNAPSHOT_RETENTION_DAYS);
+                    }
+                }
+            }
+        }
+    }
+
+    private CompiledSynonymMap readSnapshot(String key, String version) throws IOException {
+        clean(directory);
+        String hash = hash(key);
+        Path meta = directory.resolve(hash + ".meta");
+        if (!Files.exists(meta)) {
+            return null;
+        }
+        CompiledSynonymMap loaded;
+        try (Directory dir = new NIOFSDirectory(directory)) {
+            loaded = readSnapshot(dir, hash, key, version);
+        }
+        if (loaded != null) {
+            // still in use: keeps it from expiring
+            Files.setLastModifiedTime(meta, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        return loaded;
+    }
+
+    private CompiledSynonymMap readSnapshot(Directory dir, String hash, String key, String version)
+            throws IOException {
+        int maxHorizontalContext;
+        long startNode;
+        long fstChecksum;
+        BytesRefHash words = new BytesRefHash();
+        FirstTermFilter firstTerms;
+        try (ChecksumIndexInput in = dir.openChecksumInput(hash + ".meta", IOContext.READONCE)) {
+            int format = CodecUtil.checkHeader(in, SNAPSHOT_CODEC, SNAPSHOT_VERSION_START, SNAPSHOT_VERSION);
+            if (format < SNAPSHOT_VERSION_CHECKSUMS) {
+                // nothing ties the fst to the words, and no first term filter: rebuild
+                return null;
+            }
+            if (!key.equals(in.readString()) || !version.equals(in.readString())) {
+                return null;
+            }
+            maxHorizontalContext = in.readVInt();
+            startNode = in.readZLong();
+            fstChecksum = in.readLong();
+            int size = in.readVInt();
+            BytesRefBuilder scratch = new BytesRefBuilder();
+            for (int ord = 0; ord < size; ord++) {
+                // words are added in ord order, so the fst outputs keep pointing at the same words
+                int length = in.readVInt();
+                scratch.grow(length);
+                scratch.setLength(length);
+                in.readBytes(scratch.bytes(), 0, length);
+                words.add(scratch.get());
+            }
+            firstTerms = in.readByte() == 1 ? FirstTermFilter.read(in) : null;
+            CodecUtil.checkFooter(in);
+        }
+        if (startNode < 0) {
+            return new CompiledSynonymMap(new SynonymMap(null, words, maxHorizontalContext), null, null);
+        }
+        String fstName = hash + ".fst";
+        if (mmap) {
+            if (checksum(dir, fstName) != fstChecksum) {
+                logger.warn("synonym snapshot {} does not match its meta file, rebuilding", fstName);
+                return null;
+            }
+            MappedSynonymFst mapped = MappedSynonymFst.open(directory.resolve(fstName), startNode, false);
+            return new CompiledSynonymMap(new SynonymMap(null, words, maxHorizontalContext), mapped, firstTerms);
+        }
+        FST<BytesRef> fst;
+        try (ChecksumIndexInput in = dir.openChecksumInput(fstName, IOContext.READONCE)) {
+            fst = new FST<>(in, ByteSequenceOutputs.getSingleton());
+            if (in.getFilePointer() != in.length() || in.getChecksum() != fstChecksum) {
+                fst = null;
+            }
+        }
+        if (fst == null || fst.getFirstArc(new FST.Arc<>()).target != startNode) {
+            logger.warn("synonym snapshot {} does not match its meta file, rebuilding", fstName);
+            return null;
+        }
+        return new CompiledSynonymMap(new SynonymMap(fst, words, maxHorizontalContext),
+                new SynonymFst.Heap(fst), firstTerms);
+    }
+
+    /**
+     * Reads a whole file for its checksum
+     */
+    private static long checksum(Directory dir, String name) throws IOException {
+        try (ChecksumIndexInput in = dir.openChecksumInput(name, IOContext.READONCE)) {
+            in.seek(in.length());
+            return in.getChecksum();
+        }
+    }
+
+    private static String hash(String key) {
+        return MessageDigests.toHexString(
+                MessageDigests.sha1().digest(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Releases a reference to the mapped FST of a map: the one of the cache
+     * entry once the map is no longer published, or the one a filter took with
+     * {@link CompiledSynonymMap#tryAcquire()}. The last release unmaps the file,
+     * and deletes it unless it is a snapshot.
+     */
+    static void release(CompiledSynonymMap compiled) {
+        if (compiled == null || !(compiled.fst instanceof MappedSynonymFst)) {
+            return;
+        }
+        MappedSynonymFst mapped = (MappedSynonymFst) compiled.fst;
+        if (!mapped.decRef()) {
+            return;
+        }
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            try {
+                mapped.close();
+            } catch (IOException e) {
+                logger.warn("failed to close synonym fst {}", mapped.getPath(), e);
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,552 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import com.bellszhu.elasticsearch.plugin.synonym.ext.JdbcConnectionPool;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Node level cache of compiled synonym maps.
+ * <p>
+ * Entries are keyed by the identity of the synonym source plus a fingerprint of
+ * the analysis chain used to parse the rules, so indices sharing the same source
+ * and chain fetch, parse and hold the synonym map only once. Every index
+ * holds a reference on the entries it uses; the entry is dropped when the last
+ * index referencing it is closed.
+ * <p>
+ * Change detection is coalesced per source: entries built from the same source
+ * with different analysis chains subscribe to a single {@link SourceMonitor},
+ * which polls the source once per tick and reloads every subscriber on change.
+ * <p>
+ * Polling and rebuilding run on separate executors: the polls are cheap and
+ * share a small scheduled pool, while rebuilds go to a pool bounded by the
+ * number of cores. A source is rebuilt by at most one thread at a time, and
+ * changes seen while its rebuild is queued or running are coalesced into a
+ * single further rebuild, so a burst of changes can not pile up work.
+ */
+final class SynonymMapCache {
+
+    private static Logger logger = LogManager.getLogger("dynamic-synonym");
+
+    /**
+     * Static id generator
+     */
+    private static final AtomicInteger id = new AtomicInteger(1);
+    private static ScheduledExecutorService pool = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r);
+        thread.setName("monitor-synonym-Thread-" + id.getAndAdd(1));
+        return thread;
+    });
+
+    private static final int REBUILD_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final AtomicInteger rebuildId = new AtomicInteger(1);
+    /**
+     * Queue length is bounded by the number of sources: each queues at most one rebuild
+     */
+    private static final ThreadPoolExecutor rebuilds = new ThreadPoolExecutor(
+            REBUILD_THREADS, REBUILD_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r);
+        thread.setName("rebuild-synonym-Thread-" + rebuildId.getAndAdd(1));
+        return thread;
+    });
+    private static final LongAdder coalesced = new LongAdder();
+
+    /**
+     * How often idle JDBC connections are checked for their idle timeout, so
+     * pools nobody borrows from still close them
+     */
+    private static final long EVICT_IDLE_SECONDS = 10;
+
+    static {
+        rebuilds.allowCoreThreadTimeOut(true);
+        pool.scheduleWithFixedDelay(JdbcConnectionPool::evictAllIdle,
+                EVICT_IDLE_SECONDS, EVICT_IDLE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static final Map<String, Entry> entries = new HashMap<>();
+    private static final Map<String, List<Entry>> indexEntries = new HashMap<>();
+    private static final Map<String, SourceMonitor> monitors = new HashMap<>();
+
+    private SynonymMapCache() {
+    }
+
+    /**
+     * Returns the shared entry for {@code key}, loading it through {@code loader}
+     * if no other index holds it yet. The reference is owned by {@code indexName}
+     * and released by {@link #release(String)}; {@code filterName} is only
+     * reported in the stats.
+     * <p>
+     * A {@code lazy} entry is only loaded when a filter first reads its map, and
+     * its source is not polled before that. The load runs on the rebuild
+     * executor; filters pass tokens through until it is published.
+     */
+    static Entry acquire(String sourceKey, String fingerprint, String indexName, String filterName,
+                         int interval, SynonymFstStore store, boolean lazy, Supplier<SynonymFile> loader) {
+        Entry entry;
+        synchronized (SynonymMapCache.class) {
+            entry = entries.computeIfAbsent(sourceKey + "#" + fingerprint, k -> new Entry(k, sourceKey));
+            entry.refCount++;
+            entry.users.add(indexName + "/" + filterName);
+            indexEntries.computeIfAbsent(indexName, k -> new ArrayList<>()).add(entry);
+        }
+        try {
+            if (lazy) {
+                entry.defer(loader, store, interval);
+            } else {
+                entry.load(loader, store, interval);
+            }
+        } catch (RuntimeException e) {
+            synchronized (SynonymMapCache.class) {
+                List<Entry> owned = indexEntries.get(indexName);
+                if (owned != null && owned.remove(entry) && owned.isEmpty()) {
+                    indexEntries.remove(indexName);
+                }
+                unref(entry);
+            }
+            throw e;
+        }
+        return entry;
+    }
+
+    /**
+     * Drops every reference held by {@code indexName}.
+     */
+    static synchronized void release(String indexName) {
+        List<Entry> owned = indexEntries.remove(indexName);
+        if (owned == null) {
+            return;
+        }
+        for (Entry entry : owned) {
+            entry.users.removeIf(user -> user.startsWith(indexName + "/"));
+            unref(entry);
+        }
+        logger.info("release synonym cache! indexName:{} entries.size:{}", indexName, entries.size());
+    }
+
+    private static void unref(Entry entry) {
+        if (--entry.refCount > 0) {
+            return;
+        }
+        entries.remove(entry.key);
+        entry.close();
+        SourceMonitor monitor = monitors.get(entry.sourceKey);
+        if (monitor != null && monitor.unsubscribe(entry)) {
+            monitors.remove(entry.sourceKey);
+        }
+    }
+
+    private static synchronized void subscribe(Entry entry) {
+        monitors.computeIfAbsent(entry.sourceKey, SourceMonitor::new).subscribe(entry);
+    }
+
+    /**
+     * Rebuilds the matching entries without waiting for the next poll, and
+     * waits for the rebuild. Null arguments match everything; {@code source}
+     * matches source keys containing it, e.g. a {@code db_url} matches all its
+     * tables, also when they are one of the sources of a composite filter.
+     * <p>
+     * The rebuild is requested from the source monitor like a detected change,
+     * so it runs on the rebuild executor and coalesces with rebuilds already
+     * queued; every entry of a matching source is rebuilt. Entries that are not
+     * loaded yet have nothing to rebuild and are left out.
+     *
+     * @return the keys of the entries reloaded, mapped to null or the error
+     */
+    static Map<String, String> reload(String index, String filter, String source) {
+        Set<String> matching = new TreeSet<>();
+        List<CompletableFuture<Map<String, String>>> rebuilt = new ArrayList<>();
+        synchronized (SynonymMapCache.class) {
+            Set<SourceMonitor> requested = new HashSet<>();
+            for (Entry entry : entries.values()) {
+                SourceMonitor monitor = monitors.get(entry.sourceKey);
+                if (monitor == null || (source != null && !entry.sourceKey.contains(source))) {
+                    continue;
+                }
+                for (String user : entry.users) {
+                    int slash = user.indexOf('/');
+                    if ((index == null || index.equals(user.substring(0, slash)))
+                            && (filter == null || filter.equals(user.substring(slash + 1)))) {
+                        matching.add(entry.key);
+                        if (requested.add(monitor)) {
+                            rebuilt.add(monitor.requestReload());
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        for (CompletableFuture<Map<String, String>> future : rebuilt) {
+            Map<String, String> errors;
+            try {
+                errors = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted waiting for synonym rebuilds", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("synonym rebuild failed", e.getCause());
+            }
+            for (Map.Entry<String, String> e : errors.entrySet()) {
+                if (matching.contains(e.getKey())) {
+                    result.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the stats of every loaded entry and of the JDBC pools.
+     */
+    static synchronized void toXContent(XContentBuilder builder) throws IOException {
+        builder.startArray("entries");
+        for (Entry entry : entries.values()) {
+            CompiledSynonymMap map = entry.holder.peek();
+            if (map == null) {
+                // still loading, or lazy and not used yet
+                continue;
+            }
+            builder.startObject();
+            builder.field("key", entry.key);
+            builder.field("source", entry.sourceKey);
+            builder.field("users", entry.users);
+            SourceMonitor monitor = monitors.get(entry.sourceKey);
+            builder.field("reload_pending", monitor != null && monitor.isReloadPending());
+            entry.stats.toXContent(builder, map);
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.startObject("rebuild_executor");
+        builder.field("threads", REBUILD_THREADS);
+        builder.field("active", rebuilds.getActiveCount());
+        builder.field("queue", rebuilds.getQueue().size());
+        builder.field("completed", rebuilds.getCompletedTaskCount());
+        builder.field("coalesced", coalesced.sum());
+        builder.endObject();
+        builder.field("jdbc_pools");
+        builder.map(JdbcConnectionPool.allStats());
+    }
+
+    static final class Entry {
+
+        private final String key;
+        private final String sourceKey;
+        private int refCount;
+        private final Set<String> users = new TreeSet<>();
+
+        private volatile SynonymFile synonymFile;
+        private SynonymFstStore store;
+        /**
+         * Poll interval in seconds requested by the indices of this entry
+         */
+        private int interval;
+        private final SynonymMapHolder holder = new SynonymMapHolder();
+        private final SynonymStats stats = new SynonymStats();
+        private volatile boolean closed;
+
+        private Entry(String key, String sourceKey) {
+            this.key = key;
+            this.sourceKey = sourceKey;
+        }
+
+        private synchronized void defer(Supplier<SynonymFile> loader, SynonymFstStore store, int interval) {
+            if (synonymFile != null || holder.peek() != null || closed) {
+                return;
+            }
+            holder.deferTo(() -> rebuilds.execute(() -> loadDeferred(loader, store, interval)));
+        }
+
+        private void loadDeferred(Supplier<SynonymFile> loader, SynonymFstStore store, int interval) {
+            try {
+                load(loader, store, interval);
+            } catch (RuntimeException e) {
+                // the filters keep passing tokens through; the first one asking
+                // after a poll interval tries again
+                logger.error("failed to load synonym cache entry {}", key, e);
+                if (!closed) {
+                    pool.schedule(() -> defer(loader, store, interval), interval, TimeUnit.SECONDS);
+                }
+            }
+        }
+
+        private synchronized void load(Supplier<SynonymFile> loader, SynonymFstStore store, int interval) {
+            if (synonymFile != null || closed) {
+                return;
+            }
+            SynonymFile file = loader.get();
+            CompiledSynonymMap map;
+            try {
+                // read the version before the rules, so a concurrent change is picked
+                // up again instead of being hidden behind a newer snapshot version
+                String version = store.isSnapshotEnabled() ? file.getVersion() : null;
+                CompiledSynonymMap loaded = store.loadSnapshot(key, version);
+                if (loaded != null) {
+                    stats.loadedSnapshot();
+                }
+                map = loaded != null ? loaded : build(file, store, version);
+            } catch (RuntimeException e) {
+                file.close();
+                throw e;
+            }
+            // close() runs under the class lock: a deferred load racing with the
+            // last release must not publish or subscribe a closed entry
+            synchronized (SynonymMapCache.class) {
+                if (closed) {
+                    SynonymFstStore.release(map);
+                    file.close();
+                    return;
+                }
+                holder.publish(map);
+                synonymFile = file;
+                this.store = store;
+                this.interval = interval;
+                subscribe(this);
+            }
+            logger.info("load synonym cache entry {}", key);
+        }
+
+        private void close() {
+            closed = true;
+            // filters still reading the entry pass tokens through from now on
+            SynonymFstStore.release(holder.publish(SynonymMapHolder.EMPTY));
+            SynonymFile file = synonymFile;
+            if (file != null) {
+                file.close();
+            }
+            logger.info("close synonym cache entry {}", key);
+        }
+
+        private synchronized void reload() {
+            if (synonymFile == null || closed) {
+                // not loaded yet, the load failed, or no index uses it any more
+                return;
+            }
+            String version = store.isSnapshotEnabled() ? synonymFile.getVersion() : null;
+            CompiledSynonymMap next = build(synonymFile, store, version);
+            // filters switch over at their next reset()
+            CompiledSynonymMap previous = holder.publish(next);
+            SynonymFstStore.release(previous);
+            if (closed) {
+                // closed while building: close() may or may not have seen next,
+                // whatever is published now was not released yet
+                SynonymFstStore.release(holder.publish(SynonymMapHolder.EMPTY));
+            }
+            logger.info("success reload synonym {}", key);
+        }
+
+        private CompiledSynonymMap build(SynonymFile file, SynonymFstStore store, String version) {
+            ReloadStats reload = new ReloadStats();
+            try {
+                CompiledSynonymMap compiled = store.compile(key, version, file.reloadSynonymMap(reload));
+                stats.reloaded(reload, System.nanoTime());
+                return compiled;
+            } catch (RuntimeException e) {
+                stats.reloadFailed();
+                throw e;
+            }
+        }
+
+        SynonymMapHolder getHolder() {
+            return holder;
+        }
+
+        SynonymStats getStats() {
+            return stats;
+        }
+    }
+
+    /**
+     * Polls one source on behalf of every entry built from it. The first
+     * subscriber's {@link SynonymFile} acts as the change probe; on change all
+     * subscribers are rebuilt on the rebuild executor. The poll runs at the
+     * shortest interval requested by the current subscribers.
+     */
+    static class SourceMonitor implements Runnable {
+
+        private final String sourceKey;
+        private final List<Entry> subscribers = new CopyOnWriteArrayList<>();
+        private int interval = Integer.MAX_VALUE;
+        private ScheduledFuture<?> scheduledFuture;
+        /**
+         * A hand over poll may overlap the scheduled one
+         */
+        private final Object pollLock = new Object();
+
+        /**
+         * A rebuild waits in the executor queue
+         */
+        private boolean queued;
+        private boolean running;
+        /**
+         * Changed again while the rebuild was running
+         */
+        private boolean dirty;
+        /**
+         * Completed by the next rebuild to start, with the errors of its entries
+         */
+        private CompletableFuture<Map<String, String>> next;
+
+        SourceMonitor(String sourceKey) {
+            this.sourceKey = sourceKey;
+        }
+
+        private void subscribe(Entry entry) {
+            subscribers.add(entry);
+            reschedule();
+        }
+
+        /**
+         * @return true if no subscriber is left and the monitor was cancelled
+         */
+        private boolean unsubscribe(Entry entry) {
+            boolean probe = !subscribers.isEmpty() && subscribers.get(0) == entry;
+            subscribers.remove(entry);
+            if (subscribers.isEmpty()) {
+                scheduledFuture.cancel(true);
+                logger.info("stop monitoring synonym source {}", sourceKey);
+                return true;
+            }
+            reschedule();
+            if (probe) {
+                // the next subscriber last caught up with the source at the last
+                // rebuild; let it poll now rather than one interval late
+                logger.info("hand over probing synonym source {} to {}", sourceKey, subscribers.get(0).key);
+                pool.execute(this);
+            }
+            return false;
+        }
+
+        /**
+         * Polls at the shortest interval of the current subscribers, so the rate
+         * goes back up once the index asking for the fastest polling is gone.
+         */
+        private void reschedule() {
+            int min = Integer.MAX_VALUE;
+            for (Entry subscriber : subscribers) {
+                min = Math.min(min, subscriber.interval);
+            }
+            if (min == interval) {
+                return;
+            }
+            interval = min;
+            if (scheduledFuture != null) {
+                scheduledFuture.cancel(false);
+            }
+            scheduledFuture = pool.scheduleAtFixedRate(this, min, min, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void run() {
+            synchronized (pollLock) {
+                poll();
+            }
+        }
+
+        private void poll() {
+            Iterator<Entry> it = subscribers.iterator();
+            if (!it.hasNext()) {
+                return;
+            }
+            long start = System.nanoTime();
+            boolean changed = false;
+            boolean failed = false;
+            try {
+                changed = it.next().synonymFile.isNeedReloadSynonymMap();
+            } catch (Exception e) {
+                // never let an exception escape: it would cancel the schedule
+                failed = true;
+                logger.error("check synonym source {} error!", sourceKey, e);
+            }
+            long took = System.nanoTime() - start;
+            for (Entry entry : subscribers) {
+                entry.stats.polled(took, failed);
+            }
+            if (changed) {
+                requestReload();
+            }
+        }
+
+        /**
+         * @return completed once a rebuild that reads the source after this
+         * request finishes, with every subscriber's key mapped to null or the
+         * error
+         */
+        private synchronized CompletableFuture<Map<String, String>> requestReload() {
+            if (next == null) {
+                next = new CompletableFuture<>();
+            }
+            CompletableFuture<Map<String, String>> requested = next;
+            if (queued || (running && dirty)) {
+                // the pending rebuild will read the latest rules anyway
+                coalesced.increment();
+            } else if (running) {
+                dirty = true;
+            } else {
+                queued = true;
+                rebuilds.execute(this::rebuild);
+            }
+            return requested;
+        }
+
+        private void rebuild() {
+            CompletableFuture<Map<String, String>> done;
+            synchronized (this) {
+                queued = false;
+                running = true;
+                done = next;
+                next = null;
+            }
+            Map<String, String> result = new LinkedHashMap<>();
+            try {
+                for (Entry entry : subscribers) {
+                    try {
+                        entry.reload();
+                        result.put(entry.key, null);
+                    } catch (Exception e) {
+                        logger.error("reload synonym {} error!", entry.key, e);
+                        result.put(entry.key, e.getMessage() == null ? e.toString() : e.getMessage());
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    if (dirty) {
+                        dirty = false;
+                        queued = true;
+                        rebuilds.execute(this::rebuild);
+                    }
+                }
+                if (done != null) {
+                    done.complete(result);
+                }
+            }
+        }
+
+        synchronized boolean isReloadPending() {
+            return queued || dirty;
+        }
+    }
+}
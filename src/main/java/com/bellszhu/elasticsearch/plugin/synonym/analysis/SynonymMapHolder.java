@@ -0,0 +1,69 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.BytesRefHash;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The published synonym map of a cache entry.
+ * <p>
+ * Reloads build the next map completely off the analysis threads and then
+ * publish it with a single reference swap. Filters never see a partially built
+ * map; they pick the published one up at their next {@code reset()}.
+ * <p>
+ * A lazy entry publishes nothing until a filter first asks for the map; that
+ * request only starts the build, and filters pass tokens through unchanged
+ * until the map is published.
+ */
+final class SynonymMapHolder {
+
+    /**
+     * Handed to filters while nothing is published, and published once the
+     * entry is closed
+     */
+    static final CompiledSynonymMap EMPTY =
+            new CompiledSynonymMap(new SynonymMap(null, new BytesRefHash(), 0), null, null);
+
+    private final AtomicReference<CompiledSynonymMap> current = new AtomicReference<>();
+    private final AtomicReference<Runnable> materializer = new AtomicReference<>();
+
+    /**
+     * The published map, or {@link #EMPTY} if there is none yet. The first call
+     * on a lazy entry starts the build, and does not wait for it.
+     */
+    CompiledSynonymMap get() {
+        CompiledSynonymMap map = current.get();
+        if (map != null) {
+            return map;
+        }
+        Runnable pending = materializer.getAndSet(null);
+        if (pending != null) {
+            pending.run();
+        }
+        return EMPTY;
+    }
+
+    /**
+     * The published map, or null while loading or not yet built.
+     */
+    CompiledSynonymMap peek() {
+        return current.get();
+    }
+
+    /**
+     * Defers the first build to the first {@link #get()}, which runs
+     * {@code materializer} once; it must only start the build.
+     */
+    void deferTo(Runnable materializer) {
+        this.materializer.set(materializer);
+    }
+
+    /**
+     * @return the map that was published before, or null
+     */
+    CompiledSynonymMap publish(CompiledSynonymMap next) {
+        materializer.set(null);
+        return current.getAndSet(next);
+    }
+}
@@ -0,0 +1,78 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.CharsRef;
+import org.elasticsearch.index.analysis.ESSolrSynonymParser;
+import org.elasticsearch.index.analysis.ESWordnetSynonymParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Analyzed input/output pairs recorded from a synonym parser instead of being
+ * added to it, so they can be replayed into a builder later, in the same order.
+ */
+final class SynonymMappings {
+
+    final List<Mapping> mappings = new ArrayList<>();
+
+    void add(CharsRef input, CharsRef output, boolean includeOrig) {
+        // parsers may reuse the refs they pass
+        mappings.add(new Mapping(CharsRef.deepCopyOf(input), CharsRef.deepCopyOf(output), includeOrig));
+    }
+
+    void replay(SynonymMap.Builder target) {
+        for (Mapping mapping : mappings) {
+            target.add(mapping.input, mapping.output, mapping.includeOrig);
+        }
+    }
+
+    int size() {
+        return mappings.size();
+    }
+
+    /**
+     * Parses the rules like {@link RemoteSynonymFile#getSynonymParser}, but
+     * records the mappings. The lenient filter and dedup are applied only when
+     * they are replayed into an ES parser.
+     */
+    static SynonymMappings parse(Reader rulesReader, String format, boolean expand, boolean lenient,
+                                 Analyzer analyzer) throws IOException, ParseException {
+        SynonymMappings recorded = new SynonymMappings();
+        if ("wordnet".equalsIgnoreCase(format)) {
+            ESWordnetSynonymParser parser = new ESWordnetSynonymParser(true, expand, lenient, analyzer) {
+                @Override
+                public void add(CharsRef input, CharsRef output, boolean includeOrig) {
+                    recorded.add(input, output, includeOrig);
+                }
+            };
+            parser.parse(rulesReader);
+        } else {
+            ESSolrSynonymParser parser = new ESSolrSynonymParser(true, expand, lenient, analyzer) {
+                @Override
+                public void add(CharsRef input, CharsRef output, boolean includeOrig) {
+                    recorded.add(input, output, includeOrig);
+                }
+            };
+            ParallelSynonymParser.parse(rulesReader, parser, expand, lenient, analyzer);
+        }
+        return recorded;
+    }
+
+    static final class Mapping {
+
+        final CharsRef input;
+        final CharsRef output;
+        final boolean includeOrig;
+
+        private Mapping(CharsRef input, CharsRef output, boolean includeOrig) {
+            this.input = input;
+            this.output = output;
+            this.includeOrig = includeOrig;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import java.io.Reader;
+
+/**
+ * A {@link SynonymFile} backed by a single rules text, which composite sources
+ * read and parse layer by layer.
+ */
+public interface SynonymRuleFile extends SynonymFile {
+
+    Reader getReader();
+
+}
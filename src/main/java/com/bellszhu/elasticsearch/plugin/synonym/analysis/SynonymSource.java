@@ -0,0 +1,166 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import com.bellszhu.elasticsearch.plugin.synonym.ext.DbVersionProbe;
+import com.bellszhu.elasticsearch.plugin.synonym.ext.SynonymChangeFeed;
+import com.bellszhu.elasticsearch.plugin.synonym.ext.SynonymDb;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.node.Node;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the rules of a dynamic synonym filter come from: a local file, a url or
+ * a database table. Read from the filter settings, or from one entry of its
+ * {@code sources} group.
+ */
+final class SynonymSource {
+
+    private static Logger logger = LogManager.getLogger("dynamic-synonym");
+
+    /**
+     * Binlog clients opened on this node, so entries of the same source with
+     * different analysis chains get different server ids too
+     */
+    private static final AtomicLong binlogClients = new AtomicLong();
+
+    /**
+     * Name of the entry in the {@code sources} group, null for the filter itself
+     */
+    final String name;
+    /**
+     * Rules of a higher priority source win over the same input of lower ones
+     */
+    final int priority;
+    final int interval;
+    final String format;
+
+    private final String location;
+    private final boolean appendOnly;
+    private final String url;
+    private final String dbUser;
+    private final String dbPass;
+    private final String dbTable;
+    private final String type;
+    private final String style;
+    private final boolean delta;
+    private final int poolSize;
+    private final int poolIdleTimeout;
+    private final String changeFeed;
+    private final DbVersionProbe versionProbe;
+    private final String versionTable;
+    private final boolean partitioned;
+
+    SynonymSource(String name, Settings settings, int defaultInterval, String defaultFormat) {
+        this.name = name;
+        this.priority = settings.getAsInt("priority", 0);
+        this.interval = settings.getAsInt("interval", defaultInterval);
+        this.format = settings.get("format", defaultFormat);
+
+        this.location = settings.get("synonyms_path");
+        this.appendOnly = settings.getAsBoolean("append_only", false);
+        this.url = settings.get("db_url");
+        this.dbTable = settings.get("db_table");
+        this.dbUser = settings.get("db_user");
+        this.dbPass = settings.get("db_pass");
+        this.type = settings.get("dic_type");
+        this.style = settings.get("dic_style");
+        this.delta = settings.getAsBoolean("db_delta", false);
+        this.poolSize = settings.getAsInt("db_pool_size", 4);
+        this.poolIdleTimeout = settings.getAsInt("db_pool_idle_timeout", 300);
+        this.changeFeed = settings.get("db_change_feed");
+        this.versionProbe = DbVersionProbe.fromString(settings.get("db_version_probe"));
+        this.versionTable = settings.get("db_version_table");
+        this.partitioned = settings.getAsBoolean("db_partitioned", false);
+
+        if (this.location == null && this.url == null) {
+            throw new IllegalArgumentException(name == null
+                    ? "dynamic synonym requires `synonyms_path || db_url` to be configured"
+                    : "dynamic synonym source [" + name + "] requires `synonyms_path || db_url` to be configured");
+        }
+    }
+
+    /**
+     * Identity of the source, shared by every index pointing at the same file,
+     * url or database table with the same settings for loading and change
+     * detection. Indices that differ in any of them get their own entry and
+     * monitor instead of silently sharing whichever was loaded first.
+     */
+    String key() {
+        if (location != null) {
+            // an append only url is fetched with range requests
+            return appendOnly ? location + "|append_only" : location;
+        }
+        StringBuilder key = new StringBuilder()
+                .append(url).append('|').append(dbUser).append('|').append(dbTable)
+                .append('|').append(type).append('|').append(style)
+                .append(delta ? "|delta" : "|full")
+                .append("|probe:").append(versionProbe);
+        if (versionTable != null) {
+            key.append("|version_table:").append(versionTable);
+        }
+        if (partitioned) {
+            key.append("|partitioned");
+        }
+        if (changeFeed != null) {
+            // a change feed is polled differently, so it must not share a monitor with plain polling
+            key.append("|feed:").append(changeFeed);
+        }
+        return key.toString();
+    }
+
+    /**
+     * A partitioned table source is only built once an analyzer uses it, so the
+     * dic_types no index analyzes keep just their rule lines.
+     */
+    boolean isLazy() {
+        return partitioned && location == null && changeFeed == null;
+    }
+
+    /**
+     * Server id of a binlog client. Every client in the replication topology
+     * needs its own, and index settings are the same on every node, so the id is
+     * derived from the node name and the client instead of being configured.
+     */
+    static long binlogServerId(String nodeName, String client) {
+        byte[] digest = MessageDigests.sha1().digest((nodeName + "|" + client).getBytes(StandardCharsets.UTF_8));
+        long hash = ((digest[0] & 0xFFL) << 24) | ((digest[1] & 0xFFL) << 16)
+                | ((digest[2] & 0xFFL) << 8) | (digest[3] & 0xFFL);
+        // clear of the small ids usually given to real servers
+        return (1 << 16) + hash % ((1 << 30) - (1 << 16));
+    }
+
+    SynonymRuleFile open(Environment environment, Analyzer analyzer, boolean expand, boolean lenient) {
+        try {
+            SynonymRuleFile synonymFile;
+            if (location == null && changeFeed != null) {
+                synonymFile = new SynonymChangeFeed(
+                  environment, analyzer, expand, lenient, format, url, dbUser, dbPass, dbTable, type, style,
+                  poolSize, poolIdleTimeout, changeFeed,
+                  binlogServerId(Node.NODE_NAME_SETTING.get(environment.settings()),
+                          key() + "#" + binlogClients.incrementAndGet())
+                );
+            } else if (location == null) {
+                synonymFile = new SynonymDb(
+                  environment, analyzer, expand, lenient, format, url, dbUser, dbPass, dbTable, type, style, delta,
+                  poolSize, poolIdleTimeout, versionProbe, versionTable, partitioned
+                );
+            } else if (location.startsWith("http://") || location.startsWith("https://")) {
+                synonymFile = new RemoteSynonymFile(
+                        environment, analyzer, expand, lenient,  format, location, appendOnly);
+            } else {
+                synonymFile = new LocalSynonymFile(
+                        environment, analyzer, expand, lenient, format, location);
+            }
+            return synonymFile;
+        } catch (Exception e) {
+            logger.error("failed to get synonyms: " + location, e);
+            throw new IllegalArgumentException("failed to get synonyms : " + location, e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one synonym cache entry. Analysis threads only touch the striped
+ * token and hit counters, and only when a filter flushes its local counts at
+ * {@code end()}, {@code reset()} or {@code close()}.
+ */
+final class SynonymStats {
+
+    final LongAdder tokens = new LongAdder();
+    final LongAdder hits = new LongAdder();
+
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder reloadFailures = new LongAdder();
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder pollFailures = new LongAdder();
+
+    private volatile long rules = -1;
+    private volatile long lastReloadTime;
+    private volatile long lastFetchNanos;
+    private volatile long lastParseNanos;
+    private volatile long lastBuildNanos;
+    private volatile boolean fromSnapshot;
+    private volatile long lastPollNanos;
+
+    void reloaded(ReloadStats reload, long end) {
+        reloads.increment();
+        rules = reload.rules();
+        lastFetchNanos = reload.fetchNanos();
+        lastParseNanos = reload.parseNanos();
+        lastBuildNanos = reload.buildNanos(end);
+        lastReloadTime = System.currentTimeMillis();
+        fromSnapshot = false;
+    }
+
+    void loadedSnapshot() {
+        lastReloadTime = System.currentTimeMillis();
+        fromSnapshot = true;
+    }
+
+    void reloadFailed() {
+        reloadFailures.increment();
+    }
+
+    void polled(long nanos, boolean failed) {
+        polls.increment();
+        lastPollNanos = nanos;
+        if (failed) {
+            pollFailures.increment();
+        }
+    }
+
+    void toXContent(XContentBuilder builder, CompiledSynonymMap map) throws IOException {
+        builder.field("generation", map.generation);
+        builder.field("rules", rules);
+        builder.field("words", map.map.words == null ? 0 : map.map.words.size());
+        builder.field("fst_ram_bytes", map.fst == null ? 0 : map.fst.ramBytesUsed());
+        builder.field("fst_mapped_bytes",
+                map.fst instanceof MappedSynonymFst ? ((MappedSynonymFst) map.fst).mappedBytes() : 0);
+        builder.field("first_term_filter_bytes", map.firstTerms == null ? 0 : map.firstTerms.ramBytesUsed());
+        builder.field("tokens", tokens.sum());
+        builder.field("synonym_hits", hits.sum());
+        builder.field("reloads", reloads.sum());
+        builder.field("reload_failures", reloadFailures.sum());
+        builder.startObject("last_reload");
+        builder.field("timestamp", lastReloadTime);
+        builder.field("from_snapshot", fromSnapshot);
+        builder.field("fetch_millis", TimeUnit.NANOSECONDS.toMillis(lastFetchNanos));
+        builder.field("parse_millis", TimeUnit.NANOSECONDS.toMillis(lastParseNanos));
+        builder.field("build_millis", TimeUnit.NANOSECONDS.toMillis(lastBuildNanos));
+        builder.endObject();
+        builder.field("polls", polls.sum());
+        builder.field("poll_failures", pollFailures.sum());
+        builder.field("last_poll_millis", TimeUnit.NANOSECONDS.toMillis(lastPollNanos));
+    }
+}
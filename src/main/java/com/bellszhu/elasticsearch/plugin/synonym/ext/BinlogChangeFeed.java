@@ -0,0 +1,176 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventData;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URI;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 以复制从库的身份订阅 MySQL binlog，推送同义词表的行变更。
+ * 要求 binlog_format=ROW 且 binlog_row_image=FULL，数据库用户需要 REPLICATION SLAVE / REPLICATION CLIENT 权限。
+ * binlog 中的行只有列的位置，列名在 mark 时从 information_schema 读取，表结构变更后需要重建索引或重启节点。
+ */
+class BinlogChangeFeed implements ChangeFeed {
+
+    private static final Logger logger = LogManager.getLogger("dynamic-synonym");
+
+    private final SynonymDb db;
+    private final long serverId;
+
+    private String database;
+    private List<String> columns;
+    private String binlogFile;
+    private long binlogPosition;
+
+    /**
+     * table id -> 是否为同义词表
+     */
+    private final Map<Long, Boolean> tables = new ConcurrentHashMap<>();
+    private BinaryLogClient client;
+
+    BinlogChangeFeed(SynonymDb db, long serverId) {
+        this.db = db;
+        this.serverId = serverId;
+    }
+
+    @Override
+    public void mark() throws IOException {
+        Connection connection = db.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            database = connection.getCatalog();
+            ps = connection.prepareStatement("select column_name from information_schema.columns"
+                    + " where table_schema = ? and table_name = ? order by ordinal_position");
+            ps.setString(1, database);
+            ps.setString(2, db.dbTable);
+            rs = ps.executeQuery();
+            List<String> names = new ArrayList<>();
+            while (rs.next()) {
+                names.add(rs.getString(1).toLowerCase());
+            }
+            rs.close();
+            ps.close();
+            if (names.isEmpty()) {
+                throw new IOException("table " + database + "." + db.dbTable + " not found");
+            }
+            columns = names;
+
+            ps = connection.prepareStatement("show master status");
+            rs = ps.executeQuery();
+            if (!rs.next()) {
+                throw new IOException("binlog is not enabled on " + db.url);
+            }
+            binlogFile = rs.getString("File");
+            binlogPosition = rs.getLong("Position");
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("failed to read binlog position from " + db.url, e);
+        } finally {
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+                if (ps != null) {
+                    ps.close();
+                }
+            } catch (Exception e) {
+                logger.warn("close binlog position query of {} error!", db.dbTable, e);
+            }
+            db.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        // jdbc:mysql://host:port/db?...
+        URI uri = URI.create(db.url.substring("jdbc:".length()));
+        int port = uri.getPort() == -1 ? 3306 : uri.getPort();
+        client = new BinaryLogClient(uri.getHost(), port, db.dbUser, db.dbPass);
+        client.setServerId(serverId);
+        client.setBinlogFilename(binlogFile);
+        client.setBinlogPosition(binlogPosition);
+        client.registerEventListener(event -> onEvent(event, listener));
+        try {
+            AccessController.doPrivileged((PrivilegedExceptionAction<Void>) () -> {
+                client.connect(10 * 1000);
+                return null;
+            });
+        } catch (PrivilegedActionException e) {
+            throw new IOException("failed to connect to binlog of " + db.url, e.getException());
+        }
+        logger.info("following binlog of {}.{} from {}:{}", database, db.dbTable, binlogFile, binlogPosition);
+    }
+
+    private void onEvent(Event event, Listener listener) {
+        EventType type = event.getHeader().getEventType();
+        EventData data = event.getData();
+        if (type == EventType.TABLE_MAP) {
+            TableMapEventData table = (TableMapEventData) data;
+            tables.put(table.getTableId(), database.equalsIgnoreCase(table.getDatabase())
+                    && db.dbTable.equalsIgnoreCase(table.getTable()));
+        } else if (EventType.isWrite(type)) {
+            WriteRowsEventData rows = (WriteRowsEventData) data;
+            if (isSynonymTable(rows.getTableId())) {
+                for (Serializable[] row : rows.getRows()) {
+                    listener.onRow(toMap(row), false);
+                }
+            }
+        } else if (EventType.isUpdate(type)) {
+            UpdateRowsEventData rows = (UpdateRowsEventData) data;
+            if (isSynonymTable(rows.getTableId())) {
+                for (Map.Entry<Serializable[], Serializable[]> row : rows.getRows()) {
+                    listener.onRow(toMap(row.getValue()), false);
+                }
+            }
+        } else if (EventType.isDelete(type)) {
+            DeleteRowsEventData rows = (DeleteRowsEventData) data;
+            if (isSynonymTable(rows.getTableId())) {
+                for (Serializable[] row : rows.getRows()) {
+                    listener.onRow(toMap(row), true);
+                }
+            }
+        }
+    }
+
+    private boolean isSynonymTable(long tableId) {
+        return Boolean.TRUE.equals(tables.get(tableId));
+    }
+
+    private Map<String, Object> toMap(Serializable[] row) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < row.length && i < columns.size(); i++) {
+            map.put(columns.get(i), row[i]);
+        }
+        return map;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (client != null) {
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 同义词表的行变更流。每一行以列名为键推送给监听器。
+ */
+interface ChangeFeed extends Closeable {
+
+    interface Listener {
+        void onRow(Map<String, Object> row, boolean deleted);
+    }
+
+    /**
+     * 记录变更流的当前位置，全量加载之后从这里开始推送，避免加载期间的变更丢失
+     */
+    void mark() throws IOException;
+
+    void start(Listener listener) throws IOException;
+
+    /**
+     * 拉取式的变更源在每次轮询时同步推送新的变更；推送式的变更源不需要实现
+     */
+    default void poll() throws IOException {
+    }
+}
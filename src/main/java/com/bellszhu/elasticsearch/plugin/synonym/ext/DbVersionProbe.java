@@ -0,0 +1,41 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import java.util.Locale;
+
+/**
+ * 轮询时判断同义词表是否变化的方式，通过 {@code db_version_probe} 按过滤器配置
+ */
+public enum DbVersionProbe {
+
+    /**
+     * 生效记录的 max(update_time)；只能发现新增与修改，没有 (type, status, update_time) 索引时每次都会扫表
+     */
+    MAX_UPDATE_TIME,
+
+    /**
+     * count(*) + max(id) + max(update_time)，不按 status 过滤，物理删除也会改变结果
+     */
+    FINGERPRINT,
+
+    /**
+     * CHECKSUM TABLE；表开启 CHECKSUM=1（MyISAM、Aria）时直接读取实时校验和，否则需要读全表
+     */
+    CHECKSUM,
+
+    /**
+     * 读取版本表中当前词表对应的一行，由写入方或触发器在每次修改后递增
+     */
+    VERSION_ROW;
+
+    public static DbVersionProbe fromString(String value) {
+        if (value == null || "".equals(value)) {
+            return MAX_UPDATE_TIME;
+        }
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown db_version_probe [" + value
+                    + "], expected one of max_update_time, fingerprint, checksum, version_row");
+        }
+    }
+}
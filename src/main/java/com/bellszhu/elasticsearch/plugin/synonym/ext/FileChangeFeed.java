@@ -0,0 +1,84 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * 以文件代替 binlog 的变更流，便于测试和没有复制权限的环境。
+ * 文件每行一个 JSON 对象，字段与表的列同名，"op": "delete" 表示删除，例如：
+ * <pre>
+ * {"op": "insert", "id": 7, "type": "test", "status": 1, "words": "番茄,西红柿"}
+ * {"op": "delete", "id": 7}
+ * </pre>
+ * 每次轮询读取新追加的完整行；文件变短时视为被截断，从头重新读取。
+ */
+class FileChangeFeed implements ChangeFeed {
+
+    private final Path path;
+    private long offset;
+    private Listener listener;
+
+    FileChangeFeed(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public void mark() throws IOException {
+        offset = Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void poll() throws IOException {
+        if (listener == null || !Files.exists(path)) {
+            return;
+        }
+        long size = Files.size(path);
+        if (size < offset) {
+            offset = 0;
+        }
+        if (size == offset) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size - offset, Integer.MAX_VALUE));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                // keep reading
+            }
+        }
+        byte[] bytes = buffer.array();
+        int start = 0;
+        for (int i = 0; i < buffer.position(); i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            String line = new String(bytes, start, i - start, StandardCharsets.UTF_8).trim();
+            start = i + 1;
+            if (line.isEmpty()) {
+                continue;
+            }
+            Map<String, Object> row = XContentHelper.convertToMap(XContentType.JSON.xContent(), line, false);
+            listener.onRow(row, "delete".equals(row.get("op")));
+        }
+        // an unterminated last line is read again at the next poll
+        offset += start;
+    }
+
+    @Override
+    public void close() {
+        listener = null;
+    }
+}
@@ -0,0 +1,275 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点级的 JDBC 连接池，相同 url/用户/密码的 {@link SynonymDb} 共用同一个池。
+ * 连接数有上限，借出前校验空闲过久的连接，超过空闲时间的连接在借出/归还时以及
+ * 定时的 {@link #evictAllIdle()} 中被关闭。池按引用计数，最后一个使用者释放后关闭。
+ */
+public final class JdbcConnectionPool {
+
+    private static final Logger logger = LogManager.getLogger("dynamic-synonym");
+
+    /**
+     * 借出前超过该时间未使用的连接需要校验
+     */
+    private static final long VALIDATE_AFTER_MILLIS = 5 * 1000;
+    private static final int VALIDATE_TIMEOUT_SECONDS = 3;
+    private static final long BORROW_TIMEOUT_MILLIS = 30 * 1000;
+
+    /**
+     * 以 url/用户/密码为键，修改密码后新的过滤器使用新的连接池
+     */
+    private static final Map<String, JdbcConnectionPool> pools = new HashMap<>();
+
+    private final String key;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxTotal;
+    private final long idleTimeoutMillis;
+
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+
+    private int refCount;
+    private volatile boolean closed;
+
+    private JdbcConnectionPool(String key, String url, String user, String password,
+                               int maxTotal, long idleTimeoutMillis) {
+        this.key = key;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxTotal = maxTotal;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.permits = new Semaphore(maxTotal, true);
+    }
+
+    /**
+     * 获取 url/用户/密码对应的连接池并增加一次引用，第一次创建时的大小和空闲时间生效。
+     * 使用者关闭时需调用 {@link #release()}
+     */
+    public static synchronized JdbcConnectionPool acquire(String url, String user, String password,
+                                                          int maxTotal, long idleTimeoutMillis) {
+        String key = url + "|" + user + "|" + password;
+        JdbcConnectionPool pool = pools.computeIfAbsent(key,
+                k -> new JdbcConnectionPool(k, url, user, password, Math.max(1, maxTotal), idleTimeoutMillis));
+        pool.refCount++;
+        return pool;
+    }
+
+    /**
+     * 释放一次引用，最后一个引用释放后关闭空闲连接，借出中的连接归还时关闭
+     */
+    public void release() {
+        synchronized (JdbcConnectionPool.class) {
+            if (--refCount > 0) {
+                return;
+            }
+            pools.remove(key);
+            closed = true;
+        }
+        closeIdle();
+        logger.info("closed connection pool of {}", url);
+    }
+
+    /**
+     * 关闭所有连接池中空闲超时的连接，由定时任务调用，这样没有借出/归还的池也会回收连接
+     */
+    public static void evictAllIdle() {
+        List<JdbcConnectionPool> all;
+        synchronized (JdbcConnectionPool.class) {
+            all = new ArrayList<>(pools.values());
+        }
+        for (JdbcConnectionPool pool : all) {
+            pool.evictIdle();
+        }
+    }
+
+    /**
+     * @return 所有连接池的统计信息，以 url|用户 为键；同一 url|用户 有多个池（修改过密码）时后面的加上序号
+     */
+    public static synchronized Map<String, Map<String, Long>> allStats() {
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        for (JdbcConnectionPool pool : pools.values()) {
+            String name = pool.url + "|" + pool.user;
+            for (int i = 2; stats.containsKey(name); i++) {
+                name = pool.url + "|" + pool.user + "#" + i;
+            }
+            stats.put(name, pool.stats());
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (!permits.tryAcquire()) {
+            waits.incrementAndGet();
+            try {
+                if (!permits.tryAcquire(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new SQLException("timed out waiting for a connection to " + url);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("interrupted waiting for a connection to " + url, e);
+            }
+        }
+        try {
+            Connection connection = pollIdle();
+            if (connection == null) {
+                connection = DriverManager.getConnection(url, user, password);
+                created.incrementAndGet();
+            }
+            borrowed.incrementAndGet();
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (connection.isClosed()) {
+                destroyed.incrementAndGet();
+                return;
+            }
+            if (closed) {
+                destroy(connection);
+                return;
+            }
+            synchronized (idle) {
+                idle.addFirst(new IdleConnection(connection, System.currentTimeMillis()));
+            }
+            if (closed) {
+                // closed while returning: closeIdle() may already have run
+                closeIdle();
+            }
+            evictIdle();
+        } catch (SQLException e) {
+            destroy(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Connection pollIdle() {
+        evictIdle();
+        while (true) {
+            IdleConnection candidate;
+            synchronized (idle) {
+                candidate = idle.pollFirst();
+            }
+            if (candidate == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - candidate.since < VALIDATE_AFTER_MILLIS
+                    || isValid(candidate.connection)) {
+                return candidate.connection;
+            }
+            validationFailures.incrementAndGet();
+            destroy(candidate.connection);
+        }
+    }
+
+    /**
+     * 关闭空闲超时的连接；最久未用的连接在队尾
+     */
+    private void evictIdle() {
+        long deadline = System.currentTimeMillis() - idleTimeoutMillis;
+        while (true) {
+            IdleConnection candidate;
+            synchronized (idle) {
+                candidate = idle.peekLast();
+                if (candidate == null || candidate.since > deadline) {
+                    return;
+                }
+                idle.pollLast();
+            }
+            destroy(candidate.connection);
+        }
+    }
+
+    private void closeIdle() {
+        while (true) {
+            IdleConnection candidate;
+            synchronized (idle) {
+                candidate = idle.pollLast();
+            }
+            if (candidate == null) {
+                return;
+            }
+            destroy(candidate.connection);
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATE_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void destroy(Connection connection) {
+        destroyed.incrementAndGet();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("failed to close connection to {}", url, e);
+        }
+    }
+
+    public Map<String, Long> stats() {
+        int idleCount;
+        synchronized (idle) {
+            idleCount = idle.size();
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("max_total", (long) maxTotal);
+        stats.put("active", (long) (maxTotal - permits.availablePermits()));
+        stats.put("idle", (long) idleCount);
+        stats.put("created", created.get());
+        stats.put("destroyed", destroyed.get());
+        stats.put("borrowed", borrowed.get());
+        stats.put("waits", waits.get());
+        stats.put("validation_failures", validationFailures.get());
+        return stats;
+    }
+
+    private static final class IdleConnection {
+        final Connection connection;
+        final long since;
+
+        IdleConnection(Connection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+}
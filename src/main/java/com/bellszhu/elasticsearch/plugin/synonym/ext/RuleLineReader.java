@@ -0,0 +1,61 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+
+/**
+ * 按需逐行拉取规则的 Reader，解析器读到哪里才取到哪里，不在内存中拼接整个词表。
+ * 每行规则之后输出一个换行符。
+ */
+abstract class RuleLineReader extends Reader {
+
+    private String line;
+    private int pos;
+    private boolean eof;
+
+    /**
+     * @return 下一行规则，没有更多规则时返回 null
+     */
+    protected abstract String nextLine() throws IOException;
+
+    static RuleLineReader of(Iterator<String> lines) {
+        return new RuleLineReader() {
+            @Override
+            protected String nextLine() {
+                return lines.hasNext() ? lines.next() : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        while (n < len) {
+            if (line == null) {
+                if (eof || (line = nextLine()) == null) {
+                    eof = true;
+                    break;
+                }
+                pos = 0;
+            }
+            if (pos < line.length()) {
+                int count = Math.min(len - n, line.length() - pos);
+                line.getChars(pos, pos + count, cbuf, off + n);
+                pos += count;
+                n += count;
+            } else {
+                cbuf[off + n++] = '\n';
+                line = null;
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+}
@@ -0,0 +1,224 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.elasticsearch.env.Environment;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 由行变更流驱动的数据库同义词源：启动时全量加载一次，之后按 binlog（或变更文件）中的
+ * 插入、更新、删除逐行更新内存中的规则集合，轮询时不再查询数据库。
+ * 变更流启动失败时退回到增量查询。
+ */
+public class SynonymChangeFeed extends SynonymDb {
+
+    private static final Logger logger = LogManager.getLogger("dynamic-synonym");
+
+    private final SynonymRuleSet rules;
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private ChangeFeed feed;
+    private boolean started;
+
+    /**
+     * @param changeFeed {@code binlog}，或相对 config 目录的变更文件路径
+     * @param serverId   订阅 binlog 时使用的 server id，复制拓扑内每个连接必须唯一，按节点和数据源生成
+     */
+    public SynonymChangeFeed(Environment env, Analyzer analyzer, boolean expand, boolean lenient,
+                             String format, String url, String dbUser, String dbPwd, String dbTable,
+                             String type, String style, int poolSize, int poolIdleTimeout,
+                             String changeFeed, long serverId) {
+        super(env, analyzer, expand, lenient, format, url, dbUser, dbPwd, dbTable, type, style, true,
+                poolSize, poolIdleTimeout, null, null, false);
+        this.rules = new SynonymRuleSet("multi_line".equals(this.style));
+        this.feed = "binlog".equals(changeFeed)
+                ? new BinlogChangeFeed(this, serverId)
+                : new FileChangeFeed(env.configFile().resolve(changeFeed));
+    }
+
+    @Override
+    public boolean isNeedReloadSynonymMap() {
+        synchronized (rules) {
+            if (!started) {
+                return false;
+            }
+            if (feed == null) {
+                try {
+                    return loadDelta(rules);
+                } catch (SQLException e) {
+                    logger.warn("delta load synonym of {} error!", dbTable, e);
+                    return false;
+                }
+            }
+        }
+        try {
+            feed.poll();
+        } catch (Exception e) {
+            logger.error("poll synonym change feed of {} error!", dbTable, e);
+        }
+        return changed.getAndSet(false);
+    }
+
+    @Override
+    public Reader getReader() {
+        List<String> lines;
+        synchronized (rules) {
+            if (!started) {
+                start();
+            } else {
+                catchUp();
+            }
+            // 之前推送的变更都已包含在本次读取的规则中
+            changed.set(false);
+            lines = rules.lines();
+        }
+        return RuleLineReader.of(lines.iterator());
+    }
+
+    /**
+     * 同一数据源只有第一个订阅者会被监控轮询，其余实例在重建时先拉取自己错过的变更
+     */
+    private void catchUp() {
+        if (feed == null) {
+            try {
+                loadDelta(rules);
+            } catch (SQLException e) {
+                throw new IllegalStateException("could not load synonym rows from " + dbTable, e);
+            }
+            return;
+        }
+        try {
+            feed.poll();
+        } catch (Exception e) {
+            logger.error("poll synonym change feed of {} error!", dbTable, e);
+        }
+    }
+
+    private void start() {
+        if (feed != null) {
+            try {
+                feed.mark();
+            } catch (Exception e) {
+                logger.error("failed to open synonym change feed of {}, falling back to delta polling", dbTable, e);
+                feed = null;
+            }
+        }
+        try {
+            loadDelta(rules);
+        } catch (SQLException e) {
+            // 全量加载失败时不启动变更流，下次重建重新开始
+            throw new IllegalStateException("could not load synonym rows from " + dbTable, e);
+        }
+        started = true;
+        if (feed == null) {
+            return;
+        }
+        try {
+            feed.start(this::onRow);
+        } catch (Exception e) {
+            logger.error("failed to start synonym change feed of {}, falling back to delta polling", dbTable, e);
+            closeFeed();
+            feed = null;
+        }
+    }
+
+    private void onRow(Map<String, Object> row, boolean deleted) {
+        Integer id = toInt(row.get("id"));
+        if (id == null) {
+            return;
+        }
+        boolean applied;
+        synchronized (rules) {
+            applied = applyRow(rules, id, deleted, toInt(row.get("status"), 1), toInt(row.get("in_use"), 1),
+                    row.containsKey("type") ? toString(row.get("type")) : type, toString(row.get("words")),
+                    toString(row.get("main_word")), toString(row.get("keyword")),
+                    toTimestamp(row.get("update_time")));
+        }
+        if (applied) {
+            changed.set(true);
+        }
+    }
+
+    /**
+     * 变更流只在全量加载之后才有意义，不使用持久化快照
+     */
+    @Override
+    public String getVersion() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        synchronized (rules) {
+            closeFeed();
+        }
+        super.close();
+    }
+
+    private void closeFeed() {
+        if (feed == null) {
+            return;
+        }
+        try {
+            feed.close();
+        } catch (IOException e) {
+            logger.warn("close synonym change feed of {} error!", dbTable, e);
+        }
+    }
+
+    private static Integer toInt(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value != null) {
+            try {
+                return Integer.parseInt(toString(value));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static int toInt(Object value, int missing) {
+        Integer i = toInt(value);
+        return i == null ? missing : i;
+    }
+
+    private static String toString(Object value) {
+        if (value instanceof byte[]) {
+            // binlog 把 char/varchar/text 列解析为字节
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private static Timestamp toTimestamp(Object value) {
+        if (value instanceof Timestamp) {
+            return (Timestamp) value;
+        }
+        if (value instanceof Date) {
+            return new Timestamp(((Date) value).getTime());
+        }
+        if (value instanceof Number) {
+            return new Timestamp(((Number) value).longValue());
+        }
+        if (value != null) {
+            try {
+                return Timestamp.valueOf(value.toString());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
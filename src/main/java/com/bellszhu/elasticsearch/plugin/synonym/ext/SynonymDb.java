@@ -1,35 +1,34 @@
 package com.bellszhu.elasticsearch.plugin.synonym.ext;
 
-import com.bellszhu.elasticsearch.plugin.synonym.analysis.SynonymFile;
+import com.bellszhu.elasticsearch.plugin.synonym.analysis.ReloadStats;
+import com.bellszhu.elasticsearch.plugin.synonym.analysis.RemoteSynonymFile;
+import com.bellszhu.elasticsearch.plugin.synonym.analysis.SynonymRuleFile;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.elasticsearch.env.Environment;
-import org.elasticsearch.index.analysis.ESSolrSynonymParser;
-import org.elasticsearch.index.analysis.ESWordnetSynonymParser;
 
 /**
  * 通过mysql加载词表
  * @author NKU_DBIS, sunjingqi
  * @date 2022/1/15
  */
-public class SynonymDb implements SynonymFile {
+public class SynonymDb implements SynonymRuleFile {
 
     private static final Logger logger = LogManager.getLogger("dynamic-synonym");
 
@@ -50,9 +49,39 @@ public class SynonymDb implements SynonymFile {
     public String dbTable;
     public String type;
     public String style;
+    /**
+     * 增量模式：只拉取 update_time / id 水位之后的记录并合并到内存规则集合
+     */
+    public boolean delta;
+
+    public int poolSize;
+    public int poolIdleTimeout;
+
+    /**
+     * 非增量模式下轮询时判断词表是否变化的方式
+     */
+    public DbVersionProbe versionProbe;
+    /**
+     * {@link DbVersionProbe#VERSION_ROW} 读取的版本表
+     */
+    public String versionTable;
+    /**
+     * 非增量模式下与同一张表的其他 dic_type 共用一次全表查询，见 {@link SynonymTablePartitions}
+     */
+    public boolean partitioned;
 
-    private Connection connection;
-    public Map<String, Date> lastImportTime = new HashMap<>();
+    /**
+     * 增量模式下的规则集合，首次加载成功后才建立；监控轮询线程与重建线程都会读写，所有访问都在 {@link #deltaLock} 内
+     */
+    private SynonymRuleSet ruleSet;
+    private final Object deltaLock = new Object();
+    private SynonymTablePartitions partitions;
+    private JdbcConnectionPool pool;
+    private boolean poolReleased;
+    /**
+     * 上次加载时探测到的版本
+     */
+    private volatile String lastVersion;
 
     static {
         try {
@@ -61,16 +90,10 @@ public class SynonymDb implements SynonymFile {
             e.printStackTrace();
         }
     }
-    public SynonymDb () {
-        this.url = "jdbc:mysql://localhost:3306/es_data";
-        this.dbUser = "root";
-        this.dbPass = "root";
-        this.dbTable = "t_es_synonym_dic";
-    }
-
     public SynonymDb(Environment env, Analyzer analyzer, boolean expand, boolean lenient,
               String format, String url, String dbUser, String dbPwd, String dbTable,
-              String type, String style) {
+              String type, String style, boolean delta, int poolSize, int poolIdleTimeout,
+              DbVersionProbe versionProbe, String versionTable, boolean partitioned) {
         this.env = env;
         this.analyzer = analyzer;
         this.expand = expand;
@@ -81,6 +104,15 @@ public class SynonymDb implements SynonymFile {
         this.dbUser = dbUser;
         this.dbPass = dbPwd;
         this.dbTable = dbTable;
+        this.delta = delta;
+        this.poolSize = poolSize;
+        this.poolIdleTimeout = poolIdleTimeout;
+        this.versionProbe = versionProbe == null ? DbVersionProbe.MAX_UPDATE_TIME : versionProbe;
+        if (versionTable == null || "".equals(versionTable)) {
+            this.versionTable = dbTable + "_version";
+        } else {
+            this.versionTable = versionTable;
+        }
         if (type == null || "".equals(type)) {
             this.type = "all";
         } else {
@@ -92,16 +124,28 @@ public class SynonymDb implements SynonymFile {
         } else {
             this.style = style;
         }
+
+        // 增量模式自己维护规则集合，all 本身就是整张表，都不需要分区
+        this.partitioned = partitioned && !delta && !"all".equals(this.type);
+        if (this.partitioned) {
+            this.partitions = SynonymTablePartitions.acquire(url, dbUser, dbTable, this.style);
+        }
     }
 
     @Override
-    public SynonymMap reloadSynonymMap() {
+    public SynonymMap reloadSynonymMap(ReloadStats stats) {
         // 重载synonymMap
         try {
             logger.info("start reload database synonym from {}-{}.", url, dbTable);
-            Reader rulesReader = getReader();
-            SynonymMap.Builder parser = getSynonymParser(
-                    rulesReader, format, expand, lenient, analyzer);
+            if (!delta) {
+                // 先探测版本再读取规则，读取期间的修改会在下次轮询时被发现
+                lastVersion = probeVersion();
+            }
+            SynonymMap.Builder parser;
+            try (Reader rulesReader = getReader()) {
+                stats.fetched();
+                parser = RemoteSynonymFile.getSynonymParser(rulesReader, format, expand, lenient, analyzer, stats);
+            }
             return parser.build();
         } catch (Exception e) {
             logger.info("start reload database synonym from {}-{}.", url, dbTable);
@@ -112,237 +156,490 @@ public class SynonymDb implements SynonymFile {
 
     @Override
     public boolean isNeedReloadSynonymMap() {
-        // 检测 lastModifyTime 是否比对应记录的时间小
-        String key = style + ":" + type;
-        if (lastImportTime.containsKey(key)) {
-            Date last = getLastModifyTime(type);
-            if (last.getTime() > lastImportTime.get(key).getTime()) {
-                lastImportTime.put(key, last);
-                return true;
-            } else {
-                return false;
+        if (delta) {
+            // 增量模式下直接拉取水位之后的变更，有变化才需要重建
+            synchronized (deltaLock) {
+                try {
+                    if (ruleSet == null) {
+                        // 启动时从快照加载，尚未建立规则集：全量加载一次并在后台重建
+                        ruleSet = loadAll();
+                        return true;
+                    }
+                    return loadDelta(ruleSet);
+                } catch (SQLException e) {
+                    // 等下次轮询
+                    logger.warn("delta load synonym from {}-{} error!", url, dbTable, e);
+                    return false;
+                }
             }
-        } else {
-            lastImportTime.put(key, new Date(0));
-            return false;
-        }
-    }
-
-    @Override
-    public Reader getReader() {
-        List<String> data;
-        // 从数据库中查询出关键词，并使用 ‘,’ 拼接
-        if ("multi_line".equals(style)) {
-            data = getWordsMultiline(type);
-        } else {
-            data = getWordsInline(type);
         }
-        StringBuilder sb = new StringBuilder();
-        for (String s : data) {
-            sb.append(s).append(System.getProperty("line.separator"));
+        // 探测到的版本与上次加载时不同即需要重建，探测失败时等下次轮询
+        String current = probeVersion();
+        if (current == null || current.equals(lastVersion)) {
+            return false;
         }
-        return new StringReader(sb.toString());
+        lastVersion = current;
+        return true;
     }
 
-    private static SynonymMap.Builder getSynonymParser(
-            Reader rulesReader, String format, boolean expand, boolean lenient, Analyzer analyzer
-    ) throws IOException, ParseException {
-        SynonymMap.Builder parser;
-        if ("wordnet".equalsIgnoreCase(format)) {
-            parser = new ESWordnetSynonymParser(true, expand, lenient, analyzer);
-            ((ESWordnetSynonymParser) parser).parse(rulesReader);
-        } else {
-            parser = new ESSolrSynonymParser(true, expand, lenient, analyzer);
-            ((ESSolrSynonymParser) parser).parse(rulesReader);
-        }
-        return parser;
+    /**
+     * 按 {@link #versionProbe} 读取词表当前的版本
+     * @return 版本，查询失败时返回 null
+     */
+    String probeVersion() {
+        return probeVersion(!"all".equals(type));
     }
 
     /**
-     * 获取数据库连接
-     * @return connection
+     * @param byType 是否只探测当前 dic_type 的记录，分区加载时探测整张表
      */
-    private Connection getConnection() {
+    String probeVersion(boolean byType) {
+        Connection connection = getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
         try {
-            // logger.info("url: {}; user: {}; pass: {}", url, dbUser, dbPass);
-            connection = DriverManager.getConnection(url, dbUser, dbPass);
+            String sql;
+            switch (versionProbe) {
+                case FINGERPRINT:
+                    sql = "select count(*), max(id), max(update_time) from " + dbTable
+                            + (byType ? " where type = ?" : "");
+                    break;
+                case CHECKSUM:
+                    // 整张表的校验和，不区分 dic_type
+                    sql = "checksum table " + dbTable;
+                    byType = false;
+                    break;
+                case VERSION_ROW:
+                    sql = "select version from " + versionTable + " where table_name = ?";
+                    byType = false;
+                    break;
+                default:
+                    sql = "select max(update_time) from " + dbTable + " where status = 1"
+                            + (byType ? " and type = ?" : "");
+            }
+            logger.debug("sql==={}", sql);
+            ps = connection.prepareStatement(sql);
+            if (versionProbe == DbVersionProbe.VERSION_ROW) {
+                ps.setString(1, dbTable);
+            } else if (byType) {
+                ps.setString(1, type);
+            }
+            rs = ps.executeQuery();
+            if (!rs.next()) {
+                return "none";
+            }
+            StringBuilder version = new StringBuilder();
+            int columns = rs.getMetaData().getColumnCount();
+            // CHECKSUM TABLE 的第一列是表名
+            for (int i = versionProbe == DbVersionProbe.CHECKSUM ? 2 : 1; i <= columns; i++) {
+                if (version.length() > 0) {
+                    version.append("|");
+                }
+                version.append(rs.getString(i));
+            }
+            return version.toString();
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.warn("probe synonym version of {} error!", dbTable, e);
+            return null;
+        } finally {
+            closeQuietly(connection, ps, rs);
         }
-        return connection;
     }
 
     /**
-     * 获取同义词表 方式1
-     * @param type 同义词的类型
-     * @return list
+     * 当前生效规则的版本，用于校验持久化的词典快照：默认为 max(update_time) 与生效行数；
+     * 非增量模式下配置了其他探测方式时使用探测到的版本，这样物理删除也会使快照失效。
      */
-    public List<String> getWordsInline(String type) {
-        connection = getConnection();
-        List<String> data = new ArrayList<>();
+    @Override
+    public String getVersion() {
+        if (!delta && versionProbe != DbVersionProbe.MAX_UPDATE_TIME) {
+            String version = probeVersion();
+            if (lastVersion == null) {
+                lastVersion = version;
+            }
+            return version == null ? null : versionProbe + ":" + version;
+        }
+        if (!delta && lastVersion == null) {
+            // 从快照加载时不会调用 reloadSynonymMap，在这里记下版本，避免加载后又被判定为需要重建
+            lastVersion = probeVersion();
+        }
+        Connection connection = getConnection();
         PreparedStatement ps = null;
         ResultSet rs = null;
-
         try {
-            StringBuilder sql = new StringBuilder("select * from " + dbTable + " where status = 1");
-            if (!"all".equals(type)) {
-                sql.append(" and type = '").append(type).append("'");
+            StringBuilder sql = new StringBuilder("select max(update_time) as update_time, count(*) as total from "
+                    + dbTable + ("multi_line".equals(style) ? " where in_use = 1 and status = 1" : " where status = 1"));
+            boolean byType = !"all".equals(type);
+            if (byType) {
+                sql.append(" and type = ?");
             }
-            logger.log(Level.INFO, "sql==={}", sql.toString());
             ps = connection.prepareStatement(sql.toString());
+            if (byType) {
+                ps.setString(1, type);
+            }
             rs = ps.executeQuery();
-            while (rs.next()) {
-                String words = rs.getString("words");
-                if (words != null && !"".equals(words)) {
-                    data.add(words);
-                }
+            if (!rs.next()) {
+                return null;
             }
+            String updateTime = rs.getString("update_time");
+            long total = rs.getLong("total");
+            if (updateTime == null || "".equals(updateTime)) {
+                return "empty";
+            }
+            return updateTime + "|" + total;
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.warn("get synonym version of {} error!", dbTable, e);
+            return null;
         } finally {
-            try {
-                if (ps != null) {
-                    ps.close();
-                }
-                if (rs != null) {
-                    rs.close();
-                }
-                if (connection != null) {
-                    connection.close();
+            closeQuietly(connection, ps, rs);
+        }
+    }
+
+    /**
+     * 规则随解析逐行从结果集中流式读取，调用方负责关闭返回的 Reader 以归还连接
+     */
+    @Override
+    public Reader getReader() {
+        if (delta) {
+            List<String> lines;
+            synchronized (deltaLock) {
+                try {
+                    if (ruleSet == null) {
+                        ruleSet = loadAll();
+                    } else {
+                        // 同一数据源只有一个实例负责轮询，其余实例在重建前补齐自己的增量
+                        loadDelta(ruleSet);
+                    }
+                } catch (SQLException e) {
+                    // 本次重建失败，保留上一份词典；首次加载失败时不建立规则集
+                    throw new IllegalStateException("could not load synonym rows from " + dbTable, e);
                 }
+                lines = ruleSet.lines();
+            }
+            return RuleLineReader.of(lines.iterator());
+        }
+        if (partitioned) {
+            try {
+                return RuleLineReader.of(partitions.lines(this, type).iterator());
             } catch (Exception e) {
-                e.printStackTrace();
+                logger.warn("load synonym partition {} of {} error!", type, dbTable, e);
+                return new StringReader("");
             }
         }
+        boolean multiLine = "multi_line".equals(style);
+        Connection connection = getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            StringBuilder sql = new StringBuilder("select * from " + dbTable
+                    + (multiLine ? " where in_use = 1 and status = 1" : " where status = 1"));
+            boolean byType = !"all".equals(type);
+            if (byType) {
+                sql.append(" and type = ?");
+            }
+            if (multiLine) {
+                // 按主词排序，同一主词的关键词相邻，可以边读边合并
+                sql.append(" order by main_word");
+            }
+            logger.log(Level.INFO, "sql==={}", sql.toString());
+            ps = connection.prepareStatement(sql.toString(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (byType) {
+                ps.setString(1, type);
+            }
+            // 让 mysql 驱动逐行流式返回结果，而不是一次读入整个结果集
+            ps.setFetchSize(Integer.MIN_VALUE);
+            rs = ps.executeQuery();
+            return new ResultSetRuleReader(connection, ps, rs, multiLine);
+        } catch (Exception e) {
+            logger.warn("query synonym rows of {} error!", dbTable, e);
+            closeQuietly(connection, ps, rs);
+            return new StringReader("");
+        }
+    }
 
-        return data;
+    @Override
+    public void close() {
+        if (partitions != null) {
+            partitions.release();
+            partitions = null;
+        }
+        synchronized (this) {
+            if (pool != null && !poolReleased) {
+                // 之后归还的连接由已关闭的池直接关闭
+                pool.release();
+            }
+            poolReleased = true;
+        }
     }
 
     /**
-     * 获取同义词表 方式2
+     * 一次查询整张表的生效规则，按 type 分组为规则行；multi_line 方式下同一 type、同一主词的关键词合并为一行
+     * @return type 到规则行的映射
      */
-    public List<String> getWordsMultiline(String type) {
-        connection = getConnection();
-        List<String> data = new ArrayList<>();
-        HashMap<String, List<String>> map = new HashMap<>();
+    Map<String, List<String>> loadPartitions() throws SQLException {
+        boolean multiLine = "multi_line".equals(style);
+        Map<String, List<String>> loaded = new HashMap<>();
+        Connection connection = getConnection();
+        if (connection == null) {
+            throw new SQLException("no connection to " + url);
+        }
         PreparedStatement ps = null;
         ResultSet rs = null;
-
         try {
-            StringBuilder sql = new StringBuilder("select * from " + dbTable + " where in_use = 1 and status = 1");
-            if (!"all".equals(type)) {
-                sql.append(" and type = '").append(type).append("'");
-            }
-            logger.log(Level.INFO, "sql==={}", sql.toString());
-            ps = connection.prepareStatement(sql.toString());
+            String sql = "select * from " + dbTable
+                    + (multiLine ? " where in_use = 1 and status = 1 order by type, main_word" : " where status = 1");
+            logger.log(Level.INFO, "sql==={}", sql);
+            ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Integer.MIN_VALUE);
             rs = ps.executeQuery();
+            String lastType = null;
+            String lastMainWord = null;
+            StringBuilder pending = null;
             while (rs.next()) {
+                String rowType = rs.getString("type");
+                if (!multiLine) {
+                    String words = rs.getString("words");
+                    if (words != null && !"".equals(words)) {
+                        loaded.computeIfAbsent(rowType, k -> new ArrayList<>()).add(words);
+                    }
+                    continue;
+                }
                 String keyword = rs.getString("keyword");
+                if (keyword == null || "".equals(keyword)) {
+                    continue;
+                }
                 String mainWord = rs.getString("main_word");
-                if (keyword != null && !"".equals(keyword)) {
-                    if (map.containsKey(mainWord)) {
-                        map.get(mainWord).add(keyword);
-                    } else {
-                        List<String> keywordList = new ArrayList<>();
-                        keywordList.add(keyword);
-                        map.put(mainWord, keywordList);
-                    }
+                if (pending != null && Objects.equals(lastType, rowType) && Objects.equals(lastMainWord, mainWord)) {
+                    pending.append(",").append(keyword);
+                    continue;
                 }
-            }
-            for (String s : map.keySet()) {
-                StringBuilder sb = new StringBuilder();
-                for (String word : map.get(s)) {
-                    sb.append(",").append(word);
+                if (pending != null) {
+                    loaded.computeIfAbsent(lastType, k -> new ArrayList<>()).add(pending.toString());
                 }
-                data.add(sb.toString().replaceFirst(",", ""));
+                lastType = rowType;
+                lastMainWord = mainWord;
+                pending = new StringBuilder(keyword);
+            }
+            if (pending != null) {
+                loaded.computeIfAbsent(lastType, k -> new ArrayList<>()).add(pending.toString());
+            }
+            return loaded;
+        } finally {
+            closeQuietly(connection, ps, rs);
+        }
+    }
+
+    /**
+     * 依次关闭 rs、ps，任何一步失败都不影响后续步骤，连接总会归还到连接池
+     */
+    private void closeQuietly(Connection connection, PreparedStatement ps, ResultSet rs) {
+        try {
+            if (rs != null) {
+                rs.close();
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.warn("close result set of {} error!", dbTable, e);
         } finally {
             try {
                 if (ps != null) {
                     ps.close();
                 }
-                if (rs != null) {
-                    rs.close();
-                }
-                if (connection != null) {
-                    connection.close();
-                }
             } catch (Exception e) {
-                e.printStackTrace();
+                logger.warn("close statement of {} error!", dbTable, e);
+            } finally {
+                releaseConnection(connection);
             }
         }
-
-        return data;
     }
 
     /**
-     * 获取某类型的最后修改时间
-     * @param type 同义词类型
-     * @return 修改时间
+     * 从结果集中逐行读取规则；multi_line 方式下把相邻的同一主词的关键词合并为一行
      */
-    private Date getLastModifyTime(String type) {
-        connection = getConnection();
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        Date rt = null;
+    private class ResultSetRuleReader extends RuleLineReader {
 
-        try {
-            StringBuilder sql = new StringBuilder("select max(update_time) as update_time from " + dbTable + " where status = 1");
-            if (!"all".equals(type)) {
-                sql.append(" and type = '").append(type).append("'");
+        private final Connection connection;
+        private final PreparedStatement ps;
+        private final ResultSet rs;
+        private final boolean multiLine;
+
+        private boolean exhausted;
+        private boolean closed;
+        private boolean hasPending;
+        private String pendingMainWord;
+        private String pendingKeyword;
+
+        ResultSetRuleReader(Connection connection, PreparedStatement ps, ResultSet rs, boolean multiLine) {
+            this.connection = connection;
+            this.ps = ps;
+            this.rs = rs;
+            this.multiLine = multiLine;
+        }
+
+        @Override
+        protected String nextLine() throws IOException {
+            try {
+                return multiLine ? nextMultiLine() : nextInline();
+            } catch (SQLException e) {
+                throw new IOException("failed to read synonym rows from " + dbTable, e);
             }
-            logger.log(Level.INFO, "sql==={}", sql.toString());
-            ps = connection.prepareStatement(sql.toString());
-            rs = ps.executeQuery();
-            while (rs.next()) {
-                String createTime = rs.getString("update_time");
-                if (createTime != null && !"".equals(createTime)) {
-                    rt = parseDate(createTime);
+        }
+
+        private String nextInline() throws SQLException {
+            while (!exhausted && rs.next()) {
+                String words = rs.getString("words");
+                if (words != null && !"".equals(words)) {
+                    return words;
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (ps != null) {
-                    ps.close();
-                }
-                if (rs != null) {
-                    rs.close();
+            exhausted = true;
+            return null;
+        }
+
+        private String nextMultiLine() throws SQLException {
+            String mainWord = null;
+            StringBuilder sb = null;
+            while (true) {
+                if (!hasPending) {
+                    if (exhausted || !rs.next()) {
+                        exhausted = true;
+                        return sb == null ? null : sb.toString();
+                    }
+                    pendingMainWord = rs.getString("main_word");
+                    pendingKeyword = rs.getString("keyword");
+                    hasPending = true;
                 }
-                if (connection != null) {
-                    connection.close();
+                if (pendingKeyword == null || "".equals(pendingKeyword)) {
+                    hasPending = false;
+                } else if (sb == null) {
+                    mainWord = pendingMainWord;
+                    sb = new StringBuilder(pendingKeyword);
+                    hasPending = false;
+                } else if (Objects.equals(mainWord, pendingMainWord)) {
+                    sb.append(",").append(pendingKeyword);
+                    hasPending = false;
+                } else {
+                    // 当前行留给下一条规则
+                    return sb.toString();
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
         }
 
-        return rt;
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                closeQuietly(connection, ps, rs);
+            }
+        }
     }
 
     /**
-     * @param dateString 时间字符串
-     * @return date
+     * 第一次使用时获取节点级连接池的引用，{@link #close()} 时释放
+     * @return 连接池，未使用过就已关闭时返回 null
      */
-    private Date parseDate(String dateString) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private synchronized JdbcConnectionPool pool() {
+        if (pool == null && !poolReleased) {
+            pool = JdbcConnectionPool.acquire(url, dbUser, dbPass, poolSize, poolIdleTimeout * 1000L);
+        }
+        return pool;
+    }
+
+    /**
+     * 从节点级连接池借出数据库连接，使用后需通过 {@link #releaseConnection(Connection)} 归还
+     * @return connection
+     */
+    Connection getConnection() {
+        Connection connection = null;
         try {
-            return dateFormat.parse(dateString);
-        } catch (ParseException e) {
-            e.printStackTrace();
+            // logger.info("url: {}; user: {}; pass: {}", url, dbUser, dbPass);
+            JdbcConnectionPool current = pool();
+            if (current == null) {
+                throw new SQLException("synonym source " + dbTable + " is closed");
+            }
+            connection = current.borrow();
+        } catch (Exception e) {
+            logger.warn("borrow connection to {} error!", url, e);
+        }
+        return connection;
+    }
+
+    void releaseConnection(Connection connection) {
+        JdbcConnectionPool current = pool();
+        if (current != null) {
+            current.release(connection);
         }
-        return null;
     }
 
-    public static void main(String[] args) {
-        SynonymDb db = new SynonymDb();
-        List<String> extWords=db.getWordsInline("test");
-        System.out.println(extWords);
+    /**
+     * 把一行记录合并到规则集合。已删除、失效或类型不是当前 dic_type 的记录从集合中移除
+     * @return 规则集合是否发生变化
+     */
+    boolean applyRow(SynonymRuleSet rules, int id, boolean deleted, int status, int inUse, String rowType,
+                     String words, String mainWord, String keyword, Timestamp updateTime) {
+        boolean active = !deleted && status == 1
+                && ("all".equals(type) || type.equals(rowType));
+        String[] rule;
+        if ("multi_line".equals(style)) {
+            active = active && inUse == 1;
+            rule = keyword == null || "".equals(keyword) ? null : new String[]{mainWord, keyword};
+        } else {
+            rule = words == null || "".equals(words) ? null : new String[]{words};
+        }
+        return rules.apply(id, active, rule, updateTime);
+    }
+
+    /**
+     * 全量加载到新的规则集合，失败时抛出异常，不会留下只加载了一部分的集合
+     */
+    SynonymRuleSet loadAll() throws SQLException {
+        SynonymRuleSet loaded = new SynonymRuleSet("multi_line".equals(style));
+        loadDelta(loaded);
+        return loaded;
+    }
+
+    /**
+     * 拉取 update_time 不早于水位的记录（包含已失效的记录），合并到规则集合。
+     * <p>
+     * 条件只是 update_time 上的一个范围，可以走 update_time 开头的索引；不按 dic_type 过滤，
+     * 这样改成其他类型的记录也会被拉取并从集合中移除。与水位同一秒的记录会被重复拉取，
+     * 合并是幂等的，因此不会漏掉同一秒内 id 更小的后续修改（严格的 (update_time, id) 键集条件会漏掉）。
+     * 要求 update_time 由数据库维护（ON UPDATE CURRENT_TIMESTAMP）。
+     * @param rules 规则集合，为空集合时相当于全量加载
+     * @return 规则集合是否发生变化
+     * @throws SQLException 查询失败，已合并的记录保留，水位不会超过已合并的记录
+     */
+    boolean loadDelta(SynonymRuleSet rules) throws SQLException {
+        boolean multiLine = "multi_line".equals(style);
+        Connection connection = getConnection();
+        if (connection == null) {
+            throw new SQLException("no connection to " + url);
+        }
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        boolean changed = false;
+        int count = 0;
+
+        try {
+            String sql = "select * from " + dbTable + " where update_time >= ? order by update_time, id";
+            logger.log(Level.INFO, "sql==={}", sql);
+            ps = connection.prepareStatement(sql);
+            ps.setTimestamp(1, rules.getLastUpdateTime());
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                count++;
+                changed |= applyRow(rules, rs.getInt("id"), false, rs.getInt("status"),
+                        multiLine ? rs.getInt("in_use") : 1, rs.getString("type"),
+                        multiLine ? null : rs.getString("words"),
+                        multiLine ? rs.getString("main_word") : null,
+                        multiLine ? rs.getString("keyword") : null,
+                        rs.getTimestamp("update_time"));
+            }
+            logger.info("delta load {} rows from {}, {} rules in memory", count, dbTable, rules.size());
+        } finally {
+            closeQuietly(connection, ps, rs);
+        }
 
-        Date max = db.getLastModifyTime("test");
-        System.out.println(max);
+        return changed;
     }
 }
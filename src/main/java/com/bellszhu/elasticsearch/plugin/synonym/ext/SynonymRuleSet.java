@@ -0,0 +1,78 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 增量加载时在内存中维护的同义词规则集合，以记录 id 为键。
+ * 同时记录已应用的 update_time 水位，下一次只需查询水位之后的记录。
+ * 本身不加锁，由调用方串行访问。
+ */
+class SynonymRuleSet {
+
+    private final boolean multiLine;
+
+    /**
+     * inline: {words}; multi_line: {main_word, keyword}
+     */
+    private final Map<Integer, String[]> rules = new HashMap<>();
+
+    private Timestamp lastUpdateTime = new Timestamp(0);
+
+    SynonymRuleSet(boolean multiLine) {
+        this.multiLine = multiLine;
+    }
+
+    Timestamp getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    /**
+     * 合并一条记录，失效（status/in_use 不为 1）或内容为空的记录视为删除
+     * @return 规则集合是否发生变化
+     */
+    boolean apply(int id, boolean active, String[] rule, Timestamp updateTime) {
+        if (updateTime != null && updateTime.after(lastUpdateTime)) {
+            lastUpdateTime = updateTime;
+        }
+        if (!active || rule == null) {
+            return rules.remove(id) != null;
+        }
+        return !Arrays.equals(rules.put(id, rule), rule);
+    }
+
+    int size() {
+        return rules.size();
+    }
+
+    /**
+     * @return 与全量加载相同格式的规则行
+     */
+    List<String> lines() {
+        List<String> data = new ArrayList<>(rules.size());
+        if (!multiLine) {
+            for (String[] rule : rules.values()) {
+                data.add(rule[0]);
+            }
+            return data;
+        }
+        Map<String, StringBuilder> map = new LinkedHashMap<>();
+        for (String[] rule : rules.values()) {
+            StringBuilder sb = map.get(rule[0]);
+            if (sb == null) {
+                map.put(rule[0], new StringBuilder(rule[1]));
+            } else {
+                sb.append(",").append(rule[1]);
+            }
+        }
+        for (StringBuilder sb : map.values()) {
+            data.add(sb.toString());
+        }
+        return data;
+    }
+}
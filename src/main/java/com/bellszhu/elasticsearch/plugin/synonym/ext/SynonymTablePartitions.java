@@ -0,0 +1,76 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 节点级的分区加载器：url/用户/表/格式相同、只是 dic_type 不同的 {@link SynonymDb} 共用一次全表查询。
+ * 全表生效的规则按 type 分组保存为规则行，各实例只取自己 type 的分区；表的版本变化后，
+ * 第一个需要读取规则的实例重新查询整张表，其余实例直接复用查询结果。
+ * 规则行只在还有实例引用时保留，最后一个实例关闭后释放。
+ */
+final class SynonymTablePartitions {
+
+    private static final Logger logger = LogManager.getLogger("dynamic-synonym");
+
+    private static final Map<String, SynonymTablePartitions> tables = new ConcurrentHashMap<>();
+
+    private final String key;
+    /**
+     * 在 tables 的 compute 中修改
+     */
+    private int refCount;
+
+    private boolean loaded;
+    private String version;
+    private Map<String, List<String>> partitions = Collections.emptyMap();
+
+    private SynonymTablePartitions(String key) {
+        this.key = key;
+    }
+
+    /**
+     * 获取表对应的分区加载器，使用完毕后需调用 {@link #release()}
+     */
+    static SynonymTablePartitions acquire(String url, String user, String table, String style) {
+        return tables.compute(url + "|" + user + "|" + table + "|" + style, (k, existing) -> {
+            SynonymTablePartitions partitions = existing == null ? new SynonymTablePartitions(k) : existing;
+            partitions.refCount++;
+            return partitions;
+        });
+    }
+
+    void release() {
+        tables.computeIfPresent(key, (k, partitions) -> --partitions.refCount == 0 ? null : partitions);
+    }
+
+    /**
+     * 返回 type 分区的规则行。先探测整张表的版本，与上次加载时相同（或探测失败）则直接返回缓存的分区；
+     * 重新加载失败时沿用上次加载的结果。
+     * @param db 用于探测版本和查询的实例
+     */
+    synchronized List<String> lines(SynonymDb db, String type) throws SQLException {
+        String current = db.probeVersion(false);
+        if (!loaded || (current != null && !current.equals(version))) {
+            try {
+                partitions = db.loadPartitions();
+                version = current;
+                loaded = true;
+                logger.info("load {} synonym partitions of {} at version {}", partitions.size(), key, current);
+            } catch (SQLException e) {
+                if (!loaded) {
+                    throw e;
+                }
+                logger.error("reload synonym partitions of {} error, keep version {}", key, version, e);
+            }
+        }
+        List<String> lines = partitions.get(type);
+        return lines == null ? Collections.emptyList() : lines;
+    }
+}
@@ -0,0 +1,136 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CompositeSynonymFileTests {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Environment env;
+    private IndexSettings indexSettings;
+
+    @Before
+    public void createEnvironment() throws IOException {
+        Path home = tmp.newFolder().toPath();
+        Files.createDirectories(home.resolve("config"));
+        env = new Environment(Settings.builder().put("path.home", home.toString()).build(), home.resolve("config"));
+        indexSettings = new IndexSettings(IndexMetaData.builder("test")
+                .settings(Settings.builder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                .numberOfShards(1).numberOfReplicas(0).build(), Settings.EMPTY);
+    }
+
+    @Test
+    public void testHigherPriorityClaimsTheInput() throws IOException {
+        write("override.txt", "foo => bar");
+        write("base.txt", "foo => baz\nqux => quux");
+        SynonymFile file = composite(Settings.builder()
+                .put("sources.base.synonyms_path", "base.txt")
+                .put("sources.override.synonyms_path", "override.txt")
+                .put("sources.override.priority", 10)
+                .build());
+        try {
+            SynonymMap map = file.reloadSynonymMap(new ReloadStats());
+            assertEquals(Arrays.asList("bar"), expand(map, "foo"));
+            assertEquals(Arrays.asList("quux"), expand(map, "qux"));
+
+            // once the override drops the input, the lower source provides it again
+            write("override.txt", "qux => corge");
+            map = file.reloadSynonymMap(new ReloadStats());
+            assertEquals(Arrays.asList("baz"), expand(map, "foo"));
+            assertEquals(Arrays.asList("corge"), expand(map, "qux"));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testEqualPrioritiesAreOrderedByName() throws IOException {
+        write("a.txt", "foo => bar");
+        write("b.txt", "foo => baz");
+        // the settings order must not decide which source wins
+        SynonymFile file = composite(Settings.builder()
+                .put("sources.b.synonyms_path", "b.txt")
+                .put("sources.a.synonyms_path", "a.txt")
+                .build());
+        try {
+            assertEquals(Arrays.asList("bar"), expand(file.reloadSynonymMap(new ReloadStats()), "foo"));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testPriorityAndIntervalAreKeyed() throws IOException {
+        Settings sources = Settings.builder()
+                .put("sources.a.synonyms_path", "a.txt")
+                .put("sources.b.synonyms_path", "b.txt")
+                .build();
+        String key = factory(sources).sourceKey();
+        assertEquals(key, factory(sources).sourceKey());
+        assertNotEquals(key, factory(Settings.builder().put(sources)
+                .put("sources.b.priority", -1).build()).sourceKey());
+        assertNotEquals(key, factory(Settings.builder().put(sources)
+                .put("sources.a.interval", 5).build()).sourceKey());
+    }
+
+    private SynonymFile composite(Settings settings) throws IOException {
+        return factory(settings).getSynonymFile(new WhitespaceAnalyzer());
+    }
+
+    private DynamicSynonymTokenFilterFactory factory(Settings settings) throws IOException {
+        return new DynamicSynonymTokenFilterFactory(indexSettings, env, "synonym", settings);
+    }
+
+    private void write(String name, String rules) throws IOException {
+        Files.write(env.configFile().resolve(name), rules.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> expand(SynonymMap map, String text) throws IOException {
+        Analyzer analyzer = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new WhitespaceTokenizer();
+                return new TokenStreamComponents(tokenizer, new SynonymGraphFilter(tokenizer, map, false));
+            }
+        };
+        List<String> terms = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream("f", new StringReader(text))) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                terms.add(term.toString());
+            }
+            ts.end();
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,196 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DynamicSynonymFilterTests {
+
+    @Test
+    public void testRandomMapsMatchSynonymFilter() throws IOException {
+        Random random = new Random(0);
+        for (int iter = 0; iter < 20; iter++) {
+            SynonymMap map = randomMap(random, 1 + random.nextInt(100), 4);
+            assertSameTokens(random, map, false);
+            assertSameTokens(random, map, true);
+        }
+    }
+
+    @Test
+    public void testLongInputs() throws IOException {
+        Random random = new Random(1);
+        // inputs longer than most texts, outputs longer than the input
+        assertSameTokens(random, randomMap(random, 50, 24), false);
+    }
+
+    @Test
+    public void testReloadIsAppliedAtReset() throws IOException {
+        Random random = new Random(2);
+        SynonymMapHolder holder = new SynonymMapHolder();
+        SynonymMap first = randomMap(random, 20, 2);
+        holder.publish(compile(first));
+        Analyzer dynamic = dynamic(holder, false);
+
+        String text = randomText(random, false);
+        assertEquals(tokens(lucene(first, false), text), tokens(dynamic, text));
+
+        // the filter is reused, its roll buffers have to grow to the new horizon
+        SynonymMap second = randomMap(random, 50, 12);
+        holder.publish(compile(second));
+        for (int i = 0; i < 200; i++) {
+            text = randomText(random, false);
+            assertEquals(text, tokens(lucene(second, false), text), tokens(dynamic, text));
+        }
+
+        // and keep working when it shrinks again
+        SynonymMap third = randomMap(random, 20, 3);
+        holder.publish(compile(third));
+        for (int i = 0; i < 200; i++) {
+            text = randomText(random, false);
+            assertEquals(text, tokens(lucene(third, false), text), tokens(dynamic, text));
+        }
+    }
+
+    /**
+     * A stream abandoned halfway leaves pending tokens in the roll buffers, which
+     * the next reset has to clear even if the horizon changed in between
+     */
+    @Test
+    public void testPartiallyConsumedStreamAcrossReloads() throws IOException {
+        Random random = new Random(3);
+        SynonymMapHolder holder = new SynonymMapHolder();
+        Analyzer dynamic = dynamic(holder, false);
+        for (int i = 0; i < 50; i++) {
+            SynonymMap map = randomMap(random, 1 + random.nextInt(50), 1 + random.nextInt(12));
+            holder.publish(compile(map));
+            try (TokenStream ts = dynamic.tokenStream("f", new StringReader(randomText(random, false)))) {
+                ts.reset();
+                for (int tokens = random.nextInt(10); tokens > 0 && ts.incrementToken(); tokens--) {
+                    // leave the rest unread
+                }
+            }
+            String text = randomText(random, false);
+            assertEquals(text, tokens(lucene(map, false), text), tokens(dynamic, text));
+        }
+    }
+
+    private static void assertSameTokens(Random random, SynonymMap map, boolean ignoreCase) throws IOException {
+        SynonymMapHolder holder = new SynonymMapHolder();
+        holder.publish(compile(map));
+        Analyzer expected = lucene(map, ignoreCase);
+        // one reused stream, so buffers carried across documents are exercised
+        Analyzer actual = dynamic(holder, ignoreCase);
+        for (int i = 0; i < 100; i++) {
+            String text = randomText(random, ignoreCase);
+            assertEquals(text, tokens(expected, text), tokens(actual, text));
+        }
+    }
+
+    private static CompiledSynonymMap compile(SynonymMap map) {
+        return new CompiledSynonymMap(map, new SynonymFst.Heap(map.fst));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Analyzer lucene(SynonymMap map, boolean ignoreCase) {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new WhitespaceTokenizer();
+                return new TokenStreamComponents(tokenizer, new SynonymFilter(tokenizer, map, ignoreCase));
+            }
+        };
+    }
+
+    private static Analyzer dynamic(SynonymMapHolder holder, boolean ignoreCase) {
+        SynonymStats stats = new SynonymStats();
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new WhitespaceTokenizer();
+                return new TokenStreamComponents(tokenizer,
+                        new DynamicSynonymFilter(tokenizer, holder, stats, ignoreCase));
+            }
+        };
+    }
+
+    private static List<String> tokens(Analyzer analyzer, String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream("f", new StringReader(text))) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posInc = ts.addAttribute(PositionIncrementAttribute.class);
+            PositionLengthAttribute posLen = ts.addAttribute(PositionLengthAttribute.class);
+            OffsetAttribute offset = ts.addAttribute(OffsetAttribute.class);
+            TypeAttribute type = ts.addAttribute(TypeAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(term + " +" + posInc.getPositionIncrement() + " len=" + posLen.getPositionLength()
+                        + " " + offset.startOffset() + "-" + offset.endOffset() + " " + type.type());
+            }
+            ts.end();
+            tokens.add("end " + offset.endOffset() + " +" + posInc.getPositionIncrement());
+        }
+        return tokens;
+    }
+
+    private static SynonymMap randomMap(Random random, int rules, int maxWords) throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        CharsRefBuilder input = new CharsRefBuilder();
+        CharsRefBuilder output = new CharsRefBuilder();
+        for (int i = 0; i < rules; i++) {
+            SynonymMap.Builder.join(randomWords(random, maxWords), input);
+            SynonymMap.Builder.join(randomWords(random, maxWords), output);
+            builder.add(input.get(), CharsRef.deepCopyOf(output.get()), random.nextBoolean());
+        }
+        return builder.build();
+    }
+
+    private static String[] randomWords(Random random, int maxWords) {
+        String[] words = new String[1 + random.nextInt(maxWords)];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = word(random);
+        }
+        return words;
+    }
+
+    /**
+     * @param upperCase mixes in upper case words, for filters that ignore case
+     */
+    private static String randomText(Random random, boolean upperCase) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(40);
+        for (int i = 0; i < length; i++) {
+            String word = word(random);
+            if (upperCase && random.nextBoolean()) {
+                word = word.toUpperCase(Locale.ROOT);
+            }
+            // a few spaces, so offsets differ from positions
+            sb.append(word).append(random.nextInt(5) == 0 ? "  " : " ");
+        }
+        return sb.toString();
+    }
+
+    private static String word(Random random) {
+        // few words, so inputs overlap and rules match often
+        return String.valueOf((char) ('a' + random.nextInt(6)));
+    }
+}
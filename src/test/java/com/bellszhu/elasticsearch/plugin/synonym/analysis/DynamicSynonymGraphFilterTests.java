@@ -0,0 +1,154 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DynamicSynonymGraphFilterTests {
+
+    @Test
+    public void testRandomMapsMatchSynonymGraphFilter() throws IOException {
+        Random random = new Random(0);
+        for (int iter = 0; iter < 20; iter++) {
+            assertSameTokens(random, randomMap(random, 1 + random.nextInt(100), 4));
+        }
+    }
+
+    @Test
+    public void testLongInputsGrowTheLookahead() throws IOException {
+        Random random = new Random(1);
+        // inputs longer than the initial ring, outputs longer than the input
+        assertSameTokens(random, randomMap(random, 50, 24));
+    }
+
+    @Test
+    public void testReloadIsAppliedAtReset() throws IOException {
+        Random random = new Random(2);
+        SynonymMapHolder holder = new SynonymMapHolder();
+        SynonymMap first = randomMap(random, 20, 2);
+        holder.publish(compile(first));
+        Analyzer dynamic = dynamic(holder);
+
+        String text = randomText(random);
+        assertEquals(tokens(lucene(first), text), tokens(dynamic, text));
+
+        // the filter is reused, its ring has to grow to the new horizon
+        SynonymMap second = randomMap(random, 50, 12);
+        holder.publish(compile(second));
+        for (int i = 0; i < 200; i++) {
+            text = randomText(random);
+            assertEquals(text, tokens(lucene(second), text), tokens(dynamic, text));
+        }
+    }
+
+    private static void assertSameTokens(Random random, SynonymMap map) throws IOException {
+        SynonymMapHolder holder = new SynonymMapHolder();
+        holder.publish(compile(map));
+        Analyzer expected = lucene(map);
+        // one reused stream, so buffers carried across documents are exercised
+        Analyzer actual = dynamic(holder);
+        for (int i = 0; i < 100; i++) {
+            String text = randomText(random);
+            assertEquals(text, tokens(expected, text), tokens(actual, text));
+        }
+    }
+
+    private static CompiledSynonymMap compile(SynonymMap map) {
+        return new CompiledSynonymMap(map, new SynonymFst.Heap(map.fst));
+    }
+
+    private static Analyzer lucene(SynonymMap map) {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new WhitespaceTokenizer();
+                return new TokenStreamComponents(tokenizer, new SynonymGraphFilter(tokenizer, map, false));
+            }
+        };
+    }
+
+    private static Analyzer dynamic(SynonymMapHolder holder) {
+        SynonymStats stats = new SynonymStats();
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new WhitespaceTokenizer();
+                return new TokenStreamComponents(tokenizer,
+                        new DynamicSynonymGraphFilter(tokenizer, holder, stats, false));
+            }
+        };
+    }
+
+    private static List<String> tokens(Analyzer analyzer, String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream("f", new StringReader(text))) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posInc = ts.addAttribute(PositionIncrementAttribute.class);
+            PositionLengthAttribute posLen = ts.addAttribute(PositionLengthAttribute.class);
+            OffsetAttribute offset = ts.addAttribute(OffsetAttribute.class);
+            TypeAttribute type = ts.addAttribute(TypeAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(term + " +" + posInc.getPositionIncrement() + " len=" + posLen.getPositionLength()
+                        + " " + offset.startOffset() + "-" + offset.endOffset() + " " + type.type());
+            }
+            ts.end();
+            tokens.add("end " + offset.endOffset() + " +" + posInc.getPositionIncrement());
+        }
+        return tokens;
+    }
+
+    private static SynonymMap randomMap(Random random, int rules, int maxWords) throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        CharsRefBuilder input = new CharsRefBuilder();
+        CharsRefBuilder output = new CharsRefBuilder();
+        for (int i = 0; i < rules; i++) {
+            SynonymMap.Builder.join(randomWords(random, maxWords), input);
+            SynonymMap.Builder.join(randomWords(random, maxWords), output);
+            builder.add(input.get(), CharsRef.deepCopyOf(output.get()), random.nextBoolean());
+        }
+        return builder.build();
+    }
+
+    private static String[] randomWords(Random random, int maxWords) {
+        String[] words = new String[1 + random.nextInt(maxWords)];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = word(random);
+        }
+        return words;
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(40);
+        for (int i = 0; i < length; i++) {
+            // a few spaces, so offsets differ from positions
+            sb.append(word(random)).append(random.nextInt(5) == 0 ? "  " : " ");
+        }
+        return sb.toString();
+    }
+
+    private static String word(Random random) {
+        // few words, so inputs overlap and rules match often
+        return String.valueOf((char) ('a' + random.nextInt(6)));
+    }
+}
@@ -0,0 +1,122 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FirstTermFilterTests {
+
+    @Test
+    public void testEmptyMapHasNoFilter() throws IOException {
+        assertNull(FirstTermFilter.build(new SynonymMap.Builder(true).build().fst));
+    }
+
+    @Test
+    public void testEveryFirstTermMightStartARule() throws IOException {
+        Random random = new Random(0);
+        Set<String> firstTerms = new HashSet<>();
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        for (int i = 0; i < 5000; i++) {
+            String[] words = new String[1 + random.nextInt(3)];
+            for (int w = 0; w < words.length; w++) {
+                words[w] = randomTerm(random);
+            }
+            firstTerms.add(words[0]);
+            add(builder, words, "out" + i);
+        }
+        FirstTermFilter filter = FirstTermFilter.build(builder.build().fst);
+        for (String term : firstTerms) {
+            assertTrue(term, mightStartRule(filter, term, false));
+        }
+        FirstTermFilter read = roundTrip(filter);
+        for (String term : firstTerms) {
+            assertTrue(term, mightStartRule(read, term, false));
+        }
+
+        // a bloom filter of 10 bits per term and 3 hashes rejects most others
+        int accepted = 0;
+        int probes = 10000;
+        for (int i = 0; i < probes; i++) {
+            String term = "miss" + i;
+            if (mightStartRule(filter, term, false) != mightStartRule(read, term, false)) {
+                throw new AssertionError("the read filter differs on " + term);
+            }
+            if (mightStartRule(filter, term, false)) {
+                accepted++;
+            }
+        }
+        assertTrue("false positives: " + accepted, accepted < probes / 20);
+    }
+
+    @Test
+    public void testOnlyTheFirstTermIsHashed() throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        add(builder, new String[]{"new", "york"}, "ny");
+        FirstTermFilter filter = FirstTermFilter.build(builder.build().fst);
+        assertTrue(mightStartRule(filter, "new", false));
+        assertFalse(mightStartRule(filter, "york", false));
+        assertFalse(mightStartRule(filter, "new york", false));
+    }
+
+    @Test
+    public void testIgnoreCaseLowersTheToken() throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        // inputs of an ignore_case map are lower cased when parsed
+        add(builder, new String[]{"foo"}, "bar");
+        add(builder, new String[]{"𠀀x"}, "cjk");
+        FirstTermFilter filter = FirstTermFilter.build(builder.build().fst);
+        assertTrue(mightStartRule(filter, "FOO", true));
+        assertTrue(mightStartRule(filter, "foo", true));
+        assertFalse(mightStartRule(filter, "FOO", false));
+        assertTrue(mightStartRule(filter, "𠀀X", true));
+    }
+
+    private static void add(SynonymMap.Builder builder, String[] words, String output) {
+        CharsRefBuilder input = new CharsRefBuilder();
+        SynonymMap.Builder.join(words, input);
+        builder.add(input.get(), new CharsRef(output), true);
+    }
+
+    private static boolean mightStartRule(FirstTermFilter filter, String term, boolean ignoreCase) {
+        char[] buffer = (term + "padding").toCharArray();
+        return filter.mightStartRule(buffer, term.length(), ignoreCase);
+    }
+
+    private static FirstTermFilter roundTrip(FirstTermFilter filter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.write(new OutputStreamDataOutput(bytes));
+        return FirstTermFilter.read(new ByteArrayDataInput(bytes.toByteArray()));
+    }
+
+    private static String randomTerm(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = 1 + random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            // latin, CJK and a supplementary CJK code point
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.append((char) ('a' + random.nextInt(26)));
+                    break;
+                case 1:
+                    sb.append((char) (0x4e00 + random.nextInt(0x5000)));
+                    break;
+                default:
+                    sb.appendCodePoint(0x20000 + random.nextInt(0x1000));
+            }
+        }
+        return sb.toString();
+    }
+}
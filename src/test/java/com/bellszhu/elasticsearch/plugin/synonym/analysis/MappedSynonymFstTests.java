@@ -0,0 +1,249 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexFormatTooOldException;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.IntsRefFSTEnum;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedSynonymFstTests {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSmallMap() throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        add(builder, "a", "b");
+        add(builder, "a b", "c");
+        add(builder, "dog", "hound");
+        add(builder, "dog house", "kennel");
+        assertSameWalks(builder.build(), new Random(0), false);
+    }
+
+    /**
+     * A root with many arcs is written as a fixed array and binary searched
+     */
+    @Test
+    public void testFixedArrayArcs() throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        for (char c = 'a'; c <= 'z'; c++) {
+            add(builder, c + " " + c + c, "x" + c);
+            for (char d = 'a'; d <= 'z'; d++) {
+                add(builder, "" + c + d, "y" + d);
+            }
+        }
+        assertSameWalks(builder.build(), new Random(1), true);
+    }
+
+    @Test
+    public void testRandomMaps() throws IOException {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            SynonymMap.Builder builder = new SynonymMap.Builder(random.nextBoolean());
+            int rules = 1 + random.nextInt(500);
+            for (int i = 0; i < rules; i++) {
+                add(builder, randomPhrase(random), randomPhrase(random));
+            }
+            assertSameWalks(builder.build(), random, false);
+        }
+    }
+
+    @Test
+    public void testRejectsOtherFst() throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        add(builder, "a", "b");
+        SynonymMap map = builder.build();
+        Path path = tmp.newFolder().toPath().resolve("map.fst");
+        map.fst.save(path);
+        long startNode = map.fst.getFirstArc(new FST.Arc<>()).target;
+        try {
+            MappedSynonymFst.open(path, startNode + 1, false);
+            fail("start node must be validated");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("unexpected FST layout"));
+        }
+    }
+
+    @Test
+    public void testRejectsOtherFstVersion() throws IOException {
+        Path dir = tmp.newFolder().toPath();
+        try (Directory directory = new NIOFSDirectory(dir);
+             IndexOutput out = directory.createOutput("map.fst", IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(out, "FST", MappedSynonymFst.FST_VERSION - 1);
+            out.writeByte((byte) 0);
+        }
+        try {
+            MappedSynonymFst.open(dir.resolve("map.fst"), 0, false);
+            fail("only the current fst version is decoded");
+        } catch (IndexFormatTooOldException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The map that published the fst and every filter using it hold a
+     * reference; the last release unmaps and deletes the file.
+     */
+    @Test
+    public void testLastReleaseUnmaps() throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        add(builder, "a", "b");
+        SynonymMap map = builder.build();
+        Path path = tmp.newFolder().toPath().resolve("map.fst");
+        map.fst.save(path);
+        long startNode = map.fst.getFirstArc(new FST.Arc<>()).target;
+        CompiledSynonymMap compiled = new CompiledSynonymMap(new SynonymMap(null, map.words, 1),
+                MappedSynonymFst.open(path, startNode, true), null);
+        SynonymFst fst = compiled.fst;
+
+        assertTrue(compiled.tryAcquire());
+        // replaced: a filter still walks it
+        SynonymFstStore.release(compiled);
+        assertTrue(Files.exists(path));
+        SynonymFst.Arc arc = fst.getFirstArc(new SynonymFst.Arc());
+        assertNotNull(fst.findTargetArc('a', arc, new SynonymFst.Arc(), fst.getBytesReader()));
+
+        SynonymFstStore.release(compiled);
+        assertFalse(Files.exists(path));
+        assertFalse(compiled.tryAcquire());
+        try {
+            fst.findTargetArc('a', arc, new SynonymFst.Arc(), fst.getBytesReader());
+            fail("the fst must be unmapped");
+        } catch (AlreadyClosedException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Walks every input of the map, and random labels off every node on the
+     * way, through the heap and the mapped FST, comparing each arc.
+     */
+    private void assertSameWalks(SynonymMap map, Random random, boolean expectFixedArrays) throws IOException {
+        Path path = tmp.newFolder().toPath().resolve("map.fst");
+        map.fst.save(path);
+        long startNode = map.fst.getFirstArc(new FST.Arc<>()).target;
+        MappedSynonymFst mapped = MappedSynonymFst.open(path, startNode, true);
+        assertEquals(Files.size(path), mapped.mappedBytes());
+        SynonymFst heap = new SynonymFst.Heap(map.fst);
+
+        FST.BytesReader heapIn = heap.getBytesReader();
+        FST.BytesReader mappedIn = mapped.getBytesReader();
+        boolean sawFixedArray = false;
+        int inputs = 0;
+        IntsRefFSTEnum<BytesRef> it = new IntsRefFSTEnum<>(map.fst);
+        for (IntsRefFSTEnum.InputOutput<BytesRef> io = it.next(); io != null; io = it.next()) {
+            inputs++;
+            IntsRef input = io.input;
+            SynonymFst.Arc heapArc = heap.getFirstArc(new SynonymFst.Arc());
+            SynonymFst.Arc mappedArc = mapped.getFirstArc(new SynonymFst.Arc());
+            assertSameArc(heapArc, mappedArc);
+            BytesRef output = heap.outputs.getNoOutput();
+            for (int i = 0; i < input.length; i++) {
+                int label = input.ints[input.offset + i];
+                // a random label next to the real one, usually missing
+                int probe = label + random.nextInt(5) - 2;
+                if (probe >= 0) {
+                    assertSameTarget(heap, mapped, probe, heapArc, mappedArc, heapIn, mappedIn);
+                }
+                SynonymFst.Arc nextHeap = heap.findTargetArc(label, heapArc, new SynonymFst.Arc(), heapIn);
+                SynonymFst.Arc nextMapped = mapped.findTargetArc(label, mappedArc, new SynonymFst.Arc(), mappedIn);
+                assertNotNull(nextHeap);
+                assertNotNull("missing arc " + label + " in the mapped fst", nextMapped);
+                assertSameArc(nextHeap, nextMapped);
+                sawFixedArray |= nextHeap.luceneArc.bytesPerArc != 0;
+                output = heap.outputs.add(output, nextMapped.output);
+                heapArc = nextHeap;
+                mappedArc = nextMapped;
+            }
+            assertTrue(mappedArc.isFinal());
+            assertEquals(io.output, heap.outputs.add(output, mappedArc.nextFinalOutput));
+        }
+        assertTrue(inputs > 0);
+        if (expectFixedArrays) {
+            assertTrue("no fixed array node was walked", sawFixedArray);
+        }
+    }
+
+    private static void assertSameTarget(SynonymFst heap, SynonymFst mapped, int label,
+                                         SynonymFst.Arc heapFollow, SynonymFst.Arc mappedFollow,
+                                         FST.BytesReader heapIn, FST.BytesReader mappedIn) throws IOException {
+        SynonymFst.Arc heapArc = heap.findTargetArc(label, heapFollow, new SynonymFst.Arc(), heapIn);
+        SynonymFst.Arc mappedArc = mapped.findTargetArc(label, mappedFollow, new SynonymFst.Arc(), mappedIn);
+        if (heapArc == null) {
+            assertNull("unexpected arc " + label + " in the mapped fst", mappedArc);
+        } else {
+            assertNotNull("missing arc " + label + " in the mapped fst", mappedArc);
+            assertSameArc(heapArc, mappedArc);
+        }
+    }
+
+    private static void assertSameArc(SynonymFst.Arc expected, SynonymFst.Arc actual) {
+        assertEquals(expected.label, actual.label);
+        assertEquals(expected.target, actual.target);
+        assertEquals(expected.isFinal(), actual.isFinal());
+        assertEquals(expected.isLast(), actual.isLast());
+        assertEquals(expected.output, actual.output);
+        assertEquals(expected.nextFinalOutput, actual.nextFinalOutput);
+    }
+
+    static void add(SynonymMap.Builder builder, String input, String output) {
+        builder.add(join(input), join(output), true);
+    }
+
+    static CharsRef join(String phrase) {
+        return SynonymMap.Builder.join(phrase.split(" "), new CharsRefBuilder());
+    }
+
+    /**
+     * One to three words over a small alphabet, so inputs share prefixes, with
+     * CJK and supplementary characters mixed in
+     */
+    static String randomPhrase(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 1 + random.nextInt(3);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                sb.append(' ');
+            }
+            int length = 1 + random.nextInt(4);
+            for (int i = 0; i < length; i++) {
+                switch (random.nextInt(8)) {
+                    case 0:
+                        sb.append((char) ('一' + random.nextInt(32)));
+                        break;
+                    case 1:
+                        sb.appendCodePoint(0x1F600 + random.nextInt(8));
+                        break;
+                    default:
+                        sb.append((char) ('a' + random.nextInt(12)));
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.analysis.ESSolrSynonymParser;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelSynonymParserTests {
+
+    private static final Analyzer ANALYZER = new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer tokenizer = new WhitespaceTokenizer();
+            return new TokenStreamComponents(tokenizer, new StopFilter(new LowerCaseFilter(tokenizer),
+                    new CharArraySet(Collections.singleton("the"), false)));
+        }
+    };
+
+    @Test
+    public void testSingleChunkMatchesSequentialParse() throws Exception {
+        assertSameAsSequential(rules(new Random(0), 100, false), true, false);
+    }
+
+    @Test
+    public void testManyChunksMatchSequentialParse() throws Exception {
+        Random random = new Random(1);
+        int lines = ParallelSynonymParser.CHUNK_LINES * 3 + random.nextInt(ParallelSynonymParser.CHUNK_LINES);
+        assertSameAsSequential(rules(random, lines, false), true, false);
+        assertSameAsSequential(rules(random, lines, false), false, false);
+    }
+
+    @Test
+    public void testLenientRulesAreDroppedLikeSequentialParse() throws Exception {
+        Random random = new Random(2);
+        assertSameAsSequential(rules(random, ParallelSynonymParser.CHUNK_LINES * 2 + 17, true), true, true);
+    }
+
+    @Test
+    public void testParseErrorNamesTheChunk() throws Exception {
+        String rules = rules(new Random(3), ParallelSynonymParser.CHUNK_LINES * 2, false) + "the => a\n";
+        try {
+            parallel(rules, true, false);
+            fail("a rule analyzed to nothing must fail without lenient");
+        } catch (ParseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(
+                    "of the chunk starting at line " + (ParallelSynonymParser.CHUNK_LINES * 2 + 1)));
+        }
+    }
+
+    private static void assertSameAsSequential(String rules, boolean expand, boolean lenient) throws Exception {
+        ESSolrSynonymParser sequential = new ESSolrSynonymParser(true, expand, lenient, ANALYZER);
+        sequential.parse(new StringReader(rules));
+        SynonymMap expected = sequential.build();
+        SynonymMap actual = parallel(rules, expand, lenient);
+
+        assertEquals(expected.maxHorizontalContext, actual.maxHorizontalContext);
+        assertEquals(expected.words.size(), actual.words.size());
+        BytesRef expectedWord = new BytesRef();
+        BytesRef actualWord = new BytesRef();
+        for (int ord = 0; ord < expected.words.size(); ord++) {
+            assertEquals(expected.words.get(ord, expectedWord), actual.words.get(ord, actualWord));
+        }
+        assertArrayEquals(fstBytes(expected), fstBytes(actual));
+    }
+
+    private static SynonymMap parallel(String rules, boolean expand, boolean lenient)
+            throws IOException, ParseException {
+        ESSolrSynonymParser target = new ESSolrSynonymParser(true, expand, lenient, ANALYZER);
+        ParallelSynonymParser.parse(new StringReader(rules), target, expand, lenient, ANALYZER);
+        return target.build();
+    }
+
+    private static byte[] fstBytes(SynonymMap map) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        map.fst.save(new OutputStreamDataOutput(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Equivalent and explicit rules, comments, blank lines and rules that
+     * repeat earlier ones, so dedup works across chunks
+     */
+    private static String rules(Random random, int lines, boolean withStopWords) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            switch (random.nextInt(10)) {
+                case 0:
+                    sb.append("# comment ").append(i);
+                    break;
+                case 1:
+                    break;
+                case 2:
+                    sb.append(word(random)).append(" ").append(word(random)).append(" => ").append(word(random));
+                    break;
+                case 3:
+                    sb.append(withStopWords ? "the" : word(random)).append(",").append(word(random));
+                    break;
+                default:
+                    sb.append(word(random)).append(",").append(word(random)).append(",").append(word(random));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String word(Random random) {
+        // a small vocabulary, so rules share words and inputs
+        return (random.nextBoolean() ? "W" : "w") + random.nextInt(2000);
+    }
+}
@@ -0,0 +1,244 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RemoteSynonymFetcherTests {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private Environment env;
+    private String url;
+    private volatile Responder responder;
+    private volatile Headers lastRequest;
+
+    interface Responder {
+        void respond(HttpExchange exchange) throws IOException;
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        env = new Environment(Settings.builder()
+                .put("path.home", tmp.newFolder().toPath().toString()).build(), null);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/synonym.txt", exchange -> {
+            try {
+                lastRequest = exchange.getRequestHeaders();
+                // the server drops some kept alive connections after error codes,
+                // which resets the next request the client sends on them
+                exchange.getResponseHeaders().set("Connection", "close");
+                responder.respond(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/synonym.txt";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testNotModified() throws IOException {
+        RemoteSynonymFetcher fetcher = RemoteSynonymFetcher.acquire(env, url, false);
+        try {
+            responder = exchange -> {
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                send(exchange, 200, "a,b\n");
+            };
+            fetcher.fetchNow();
+            long generation = fetcher.generation();
+
+            responder = exchange -> exchange.sendResponseHeaders(304, -1);
+            fetcher.fetchNow();
+            assertEquals("\"v1\"", lastRequest.getFirst("If-None-Match"));
+            assertEquals(generation, fetcher.generation());
+            assertEquals("a,b\n", read(fetcher));
+        } finally {
+            fetcher.release();
+        }
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        RemoteSynonymFetcher fetcher = RemoteSynonymFetcher.acquire(env, url, false);
+        try {
+            responder = exchange -> {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                send(exchange, 200, gzip("a,b\nc,d\n"));
+            };
+            fetcher.fetchNow();
+            assertEquals("gzip, deflate", lastRequest.getFirst("Accept-Encoding"));
+            assertEquals("a,b\nc,d\n", read(fetcher));
+        } finally {
+            fetcher.release();
+        }
+    }
+
+    @Test
+    public void testUnknownEncodingKeepsTheCopy() throws IOException {
+        RemoteSynonymFetcher fetcher = RemoteSynonymFetcher.acquire(env, url, false);
+        try {
+            responder = exchange -> send(exchange, 200, "a,b\n");
+            fetcher.fetchNow();
+            long generation = fetcher.generation();
+
+            responder = exchange -> {
+                exchange.getResponseHeaders().set("Content-Encoding", "br");
+                send(exchange, 200, "not brotli");
+            };
+            fetcher.fetchNow();
+            assertEquals(generation, fetcher.generation());
+            assertEquals("a,b\n", read(fetcher));
+        } finally {
+            fetcher.release();
+        }
+    }
+
+    @Test
+    public void testRangeIsAppended() throws IOException {
+        RemoteSynonymFetcher fetcher = RemoteSynonymFetcher.acquire(env, url, true);
+        try {
+            responder = exchange -> send(exchange, 200, "a,b\n");
+            fetcher.fetchNow();
+
+            responder = exchange -> {
+                exchange.getResponseHeaders().set("Content-Range", "bytes 4-7/8");
+                send(exchange, 206, "c,d\n");
+            };
+            fetcher.fetchNow();
+            assertEquals("bytes=4-", lastRequest.getFirst("Range"));
+            assertEquals("a,b\nc,d\n", read(fetcher));
+        } finally {
+            fetcher.release();
+        }
+    }
+
+    /**
+     * A server may answer a range with other bytes than the ones asked for
+     */
+    @Test
+    public void testUnexpectedRangeFallsBackToAFullFetch() throws IOException {
+        RemoteSynonymFetcher fetcher = RemoteSynonymFetcher.acquire(env, url, true);
+        try {
+            responder = exchange -> send(exchange, 200, "a,b\n");
+            fetcher.fetchNow();
+            long generation = fetcher.generation();
+
+            responder = exchange -> {
+                exchange.getResponseHeaders().set("Content-Range", "bytes 0-7/8");
+                send(exchange, 206, "a,b\nc,d\n");
+            };
+            fetcher.fetchNow();
+            assertEquals(generation, fetcher.generation());
+            assertEquals("a,b\n", read(fetcher));
+
+            responder = exchange -> send(exchange, 200, "a,b\nc,d\n");
+            fetcher.fetchNow();
+            assertNull(lastRequest.getFirst("Range"));
+            assertEquals("a,b\nc,d\n", read(fetcher));
+        } finally {
+            fetcher.release();
+        }
+    }
+
+    @Test
+    public void testShrunkFileIsFetchedWhole() throws IOException {
+        RemoteSynonymFetcher fetcher = RemoteSynonymFetcher.acquire(env, url, true);
+        try {
+            responder = exchange -> send(exchange, 200, "a,b\nc,d\n");
+            fetcher.fetchNow();
+
+            responder = exchange -> {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */4");
+                exchange.sendResponseHeaders(416, -1);
+            };
+            fetcher.fetchNow();
+            assertEquals("bytes=8-", lastRequest.getFirst("Range"));
+            assertEquals("a,b\nc,d\n", read(fetcher));
+
+            responder = exchange -> send(exchange, 200, "x,y\n");
+            fetcher.fetchNow();
+            assertNull(lastRequest.getFirst("Range"));
+            assertEquals("x,y\n", read(fetcher));
+        } finally {
+            fetcher.release();
+        }
+    }
+
+    /**
+     * A server ignoring the validators sends the same content again
+     */
+    @Test
+    public void testUnchangedChecksumKeepsTheGeneration() throws IOException {
+        RemoteSynonymFetcher fetcher = RemoteSynonymFetcher.acquire(env, url, false);
+        try {
+            responder = exchange -> send(exchange, 200, "a,b\n");
+            fetcher.fetchNow();
+            long generation = fetcher.generation();
+            String version = fetcher.version();
+
+            fetcher.fetchNow();
+            assertEquals(generation, fetcher.generation());
+            assertEquals(version, fetcher.version());
+        } finally {
+            fetcher.release();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String read(RemoteSynonymFetcher fetcher) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (Reader reader = fetcher.openReader()) {
+            char[] buffer = new char[256];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+        }
+        return sb.toString();
+    }
+}
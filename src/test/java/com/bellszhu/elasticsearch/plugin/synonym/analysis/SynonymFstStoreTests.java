@@ -0,0 +1,214 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.IntsRefFSTEnum;
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SynonymFstStoreTests {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Environment env;
+
+    @Before
+    public void createEnvironment() throws IOException {
+        Path home = tmp.newFolder().toPath();
+        env = new Environment(Settings.builder().put("path.home", home.toString()).build(), null);
+    }
+
+    @Test
+    public void testHeapSnapshotRoundTrip() throws IOException {
+        assertRoundTrip(SynonymFstStore.create(env, false, true));
+    }
+
+    @Test
+    public void testMappedSnapshotRoundTrip() throws IOException {
+        assertRoundTrip(SynonymFstStore.create(env, true, true));
+    }
+
+    @Test
+    public void testEmptyMapRoundTrip() throws IOException {
+        SynonymFstStore store = SynonymFstStore.create(env, false, true);
+        store.compile("empty", "v1", new SynonymMap.Builder(true).build());
+        CompiledSynonymMap loaded = store.loadSnapshot("empty", "v1");
+        assertNotNull(loaded);
+        assertNull(loaded.fst);
+        assertNull(loaded.firstTerms);
+    }
+
+    @Test
+    public void testHeapSnapshotWithNewerFstIsRejected() throws IOException {
+        assertMismatchedPairRejected(SynonymFstStore.create(env, false, true));
+    }
+
+    @Test
+    public void testMappedSnapshotWithNewerFstIsRejected() throws IOException {
+        assertMismatchedPairRejected(SynonymFstStore.create(env, true, true));
+    }
+
+    @Test
+    public void testCorruptMetaIsRejected() throws IOException {
+        SynonymFstStore store = SynonymFstStore.create(env, false, true);
+        store.compile("key", "v1", randomMap(new Random(0)));
+        Path meta = snapshotFile(".meta");
+        byte[] bytes = Files.readAllBytes(meta);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(meta, bytes);
+        assertNull(store.loadSnapshot("key", "v1"));
+    }
+
+    /**
+     * Snapshots are copied to the data path of a node that has not started yet,
+     * which removes the expired one when it first reads the directory.
+     */
+    @Test
+    public void testUnusedSnapshotsExpire() throws IOException {
+        SynonymFstStore store = SynonymFstStore.create(env, true, true);
+        store.compile("used", "v1", randomMap(new Random(1)));
+        store.compile("unused", "v1", randomMap(new Random(2)));
+        Path directory = env.dataFiles()[0].resolve("dynamic_synonym");
+
+        createEnvironment();
+        Path restarted = env.dataFiles()[0].resolve("dynamic_synonym");
+        Files.createDirectories(restarted);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                Files.copy(path, restarted.resolve(path.getFileName()));
+            }
+        }
+        FileTime expired = FileTime.fromMillis(System.currentTimeMillis()
+                - TimeUnit.DAYS.toMillis(SynonymFstStore.SNAPSHOT_RETENTION_DAYS + 1));
+        Files.setLastModifiedTime(restarted.resolve(snapshotName("unused") + ".meta"), expired);
+        Files.setLastModifiedTime(restarted.resolve(snapshotName("used") + ".fst"), expired);
+
+        store = SynonymFstStore.create(env, true, true);
+        assertNotNull(store.loadSnapshot("used", "v1"));
+        assertNull(store.loadSnapshot("unused", "v1"));
+        assertFalse(Files.exists(restarted.resolve(snapshotName("unused") + ".fst")));
+        assertTrue(Files.getLastModifiedTime(restarted.resolve(snapshotName("used") + ".meta"))
+                .compareTo(expired) > 0);
+    }
+
+    private static String snapshotName(String key) {
+        return MessageDigests.toHexString(MessageDigests.sha1().digest(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void assertRoundTrip(SynonymFstStore store) throws IOException {
+        SynonymMap map = randomMap(new Random(42));
+        CompiledSynonymMap compiled = store.compile("key", "v1", map);
+        assertNotNull(compiled.firstTerms);
+
+        assertNull(store.loadSnapshot("key", "v2"));
+        assertNull(store.loadSnapshot("other", "v1"));
+        CompiledSynonymMap loaded = store.loadSnapshot("key", "v1");
+        assertNotNull(loaded);
+        assertEquals(map.maxHorizontalContext, loaded.map.maxHorizontalContext);
+        assertEquals(map.words.size(), loaded.map.words.size());
+        BytesRef expected = new BytesRef();
+        BytesRef actual = new BytesRef();
+        for (int ord = 0; ord < map.words.size(); ord++) {
+            assertEquals(map.words.get(ord, expected), loaded.map.words.get(ord, actual));
+        }
+        IntsRefFSTEnum<BytesRef> it = new IntsRefFSTEnum<>(map.fst);
+        for (IntsRefFSTEnum.InputOutput<BytesRef> io = it.next(); io != null; io = it.next()) {
+            assertEquals(io.output, lookup(loaded.fst, io.input));
+            String firstTerm = firstTerm(io.input);
+            assertTrue(loaded.firstTerms.mightStartRule(firstTerm.toCharArray(), firstTerm.length(), false));
+        }
+    }
+
+    /**
+     * A crash between moving the fst and the meta file in leaves a new fst
+     * next to the meta of the previous build.
+     */
+    private void assertMismatchedPairRejected(SynonymFstStore store) throws IOException {
+        // the same shape, so only the checksum tells the two fsts apart
+        SynonymMap.Builder v1 = new SynonymMap.Builder(true);
+        MappedSynonymFstTests.add(v1, "a b", "x");
+        MappedSynonymFstTests.add(v1, "c", "y");
+        SynonymMap.Builder v2 = new SynonymMap.Builder(true);
+        MappedSynonymFstTests.add(v2, "a d", "x");
+        MappedSynonymFstTests.add(v2, "c", "y");
+        SynonymMap first = v1.build();
+        SynonymMap second = v2.build();
+        assertEquals(first.fst.getFirstArc(new FST.Arc<>()).target, second.fst.getFirstArc(new FST.Arc<>()).target);
+
+        store.compile("key", "v1", first);
+        Path meta = snapshotFile(".meta");
+        Path oldMeta = tmp.newFile().toPath();
+        Files.copy(meta, oldMeta, StandardCopyOption.REPLACE_EXISTING);
+
+        store.compile("key", "v2", second);
+        Files.copy(oldMeta, meta, StandardCopyOption.REPLACE_EXISTING);
+        assertNull(store.loadSnapshot("key", "v1"));
+    }
+
+    private Path snapshotFile(String suffix) throws IOException {
+        Path directory = env.dataFiles()[0].resolve("dynamic_synonym");
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().contains("-")) {
+                    return path;
+                }
+            }
+        }
+        throw new AssertionError("no snapshot " + suffix + " file in " + directory);
+    }
+
+    private static SynonymMap randomMap(Random random) throws IOException {
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        int rules = 50 + random.nextInt(200);
+        for (int i = 0; i < rules; i++) {
+            MappedSynonymFstTests.add(builder, MappedSynonymFstTests.randomPhrase(random),
+                    MappedSynonymFstTests.randomPhrase(random));
+        }
+        return builder.build();
+    }
+
+    static String firstTerm(IntsRef input) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = input.offset; i < input.offset + input.length && input.ints[i] != SynonymMap.WORD_SEPARATOR; i++) {
+            sb.appendCodePoint(input.ints[i]);
+        }
+        return sb.toString();
+    }
+
+    private static BytesRef lookup(SynonymFst fst, IntsRef input) throws IOException {
+        FST.BytesReader in = fst.getBytesReader();
+        SynonymFst.Arc arc = fst.getFirstArc(new SynonymFst.Arc());
+        BytesRef output = fst.outputs.getNoOutput();
+        for (int i = 0; i < input.length; i++) {
+            arc = fst.findTargetArc(input.ints[input.offset + i], arc, arc, in);
+            assertNotNull(arc);
+            output = fst.outputs.add(output, arc.output);
+        }
+        assertTrue(arc.isFinal());
+        return fst.outputs.add(output, arc.nextFinalOutput);
+    }
+}
@@ -0,0 +1,85 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.CharsRef;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SynonymMapHolderTests {
+
+    @Test
+    public void testLazyGetStartsTheBuildOnceWithoutWaiting() {
+        SynonymMapHolder holder = new SynonymMapHolder();
+        AtomicInteger started = new AtomicInteger();
+        holder.deferTo(started::incrementAndGet);
+        assertSame(SynonymMapHolder.EMPTY, holder.get());
+        assertSame(SynonymMapHolder.EMPTY, holder.get());
+        assertEquals(1, started.get());
+        assertNull(holder.peek());
+    }
+
+    @Test
+    public void testFiltersPassTokensThroughUntilPublished() throws IOException {
+        SynonymMapHolder holder = new SynonymMapHolder();
+        holder.deferTo(() -> {
+        });
+        Analyzer graph = analyzer(holder, true);
+        Analyzer plain = analyzer(holder, false);
+        assertEquals(Arrays.asList("foo", "baz"), terms(graph, "foo baz"));
+        assertEquals(Arrays.asList("foo", "baz"), terms(plain, "foo baz"));
+
+        SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        builder.add(new CharsRef("foo"), new CharsRef("bar"), false);
+        SynonymMap map = builder.build();
+        holder.publish(new CompiledSynonymMap(map, new SynonymFst.Heap(map.fst)));
+        // the reused streams switch at their next reset()
+        assertEquals(Arrays.asList("bar", "baz"), terms(graph, "foo baz"));
+        assertEquals(Arrays.asList("bar", "baz"), terms(plain, "foo baz"));
+
+        // a closed entry publishes the empty map again
+        holder.publish(SynonymMapHolder.EMPTY);
+        assertEquals(Arrays.asList("foo", "baz"), terms(graph, "foo baz"));
+        assertEquals(Arrays.asList("foo", "baz"), terms(plain, "foo baz"));
+    }
+
+    private static Analyzer analyzer(SynonymMapHolder holder, boolean graph) {
+        SynonymStats stats = new SynonymStats();
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new WhitespaceTokenizer();
+                return new TokenStreamComponents(tokenizer, graph
+                        ? new DynamicSynonymGraphFilter(tokenizer, holder, stats, false)
+                        : new DynamicSynonymFilter(tokenizer, holder, stats, false));
+            }
+        };
+    }
+
+    private static List<String> terms(Analyzer analyzer, String text) throws IOException {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream("f", new StringReader(text))) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                terms.add(term.toString());
+            }
+            ts.end();
+        }
+        return terms;
+    }
+}
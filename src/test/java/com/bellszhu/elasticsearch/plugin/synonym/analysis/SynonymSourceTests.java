@@ -0,0 +1,58 @@
+package com.bellszhu.elasticsearch.plugin.synonym.analysis;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SynonymSourceTests {
+
+    private static final Settings TABLE = Settings.builder()
+            .put("db_url", "jdbc:mysql://localhost:3306/dict")
+            .put("db_user", "es")
+            .put("db_table", "synonym")
+            .put("dic_type", "goods")
+            .put("dic_style", "inline")
+            .build();
+
+    @Test
+    public void testSameSettingsShareTheKey() {
+        assertEquals(key(TABLE), key(Settings.builder().put(TABLE).put("interval", 10).build()));
+    }
+
+    @Test
+    public void testLoadingSettingsAreKeyed() {
+        String key = key(TABLE);
+        assertNotEquals(key, key(Settings.builder().put(TABLE).put("db_delta", true).build()));
+        assertNotEquals(key, key(Settings.builder().put(TABLE).put("db_version_probe", "fingerprint").build()));
+        Settings versionRow = Settings.builder().put(TABLE).put("db_version_probe", "version_row").build();
+        assertNotEquals(key(Settings.builder().put(versionRow).put("db_version_table", "synonym_version").build()),
+                key(Settings.builder().put(versionRow).put("db_version_table", "other_version").build()));
+        assertNotEquals(key, key(Settings.builder().put(TABLE).put("db_partitioned", true).build()));
+        assertNotEquals(key, key(Settings.builder().put(TABLE).put("db_change_feed", "binlog").build()));
+    }
+
+    @Test
+    public void testAppendOnlyUrlIsKeyed() {
+        Settings url = Settings.builder().put("synonyms_path", "http://localhost/synonym.txt").build();
+        assertNotEquals(key(url), key(Settings.builder().put(url).put("append_only", true).build()));
+    }
+
+    @Test
+    public void testBinlogServerIdDependsOnTheNode() {
+        long id = SynonymSource.binlogServerId("node-1", "source#1");
+        assertEquals(id, SynonymSource.binlogServerId("node-1", "source#1"));
+        assertNotEquals(id, SynonymSource.binlogServerId("node-2", "source#1"));
+        assertNotEquals(id, SynonymSource.binlogServerId("node-1", "source#2"));
+        for (int i = 0; i < 1000; i++) {
+            long other = SynonymSource.binlogServerId("node-" + i, "source#1");
+            assertTrue(other >= 1 << 16 && other < 1 << 30);
+        }
+    }
+
+    private static String key(Settings settings) {
+        return new SynonymSource(null, settings, 60, "").key();
+    }
+}
@@ -0,0 +1,184 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * In-memory JDBC driver for {@code jdbc:fake:} urls. Every query returns the
+ * configured rows, or fails while {@link #failQueries} is set; connections,
+ * statements and result sets are proxies that count what was opened and closed.
+ */
+final class FakeJdbc implements Driver {
+
+    static final String URL = "jdbc:fake:";
+
+    static final AtomicInteger connectionsOpened = new AtomicInteger();
+    static final AtomicInteger connectionsClosed = new AtomicInteger();
+    static final AtomicInteger statementsClosed = new AtomicInteger();
+    static final AtomicInteger resultSetsClosed = new AtomicInteger();
+    static volatile boolean failStatementClose;
+    static volatile boolean failQueries;
+    static volatile String lastSql;
+    /**
+     * Strings bound to the last prepared statement
+     */
+    static final List<String> lastParameters = new CopyOnWriteArrayList<>();
+    static volatile List<Map<String, Object>> rows = new ArrayList<>();
+
+    private static final FakeJdbc INSTANCE = new FakeJdbc();
+
+    static {
+        try {
+            DriverManager.registerDriver(INSTANCE);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void reset() {
+        connectionsOpened.set(0);
+        connectionsClosed.set(0);
+        statementsClosed.set(0);
+        resultSetsClosed.set(0);
+        failStatementClose = false;
+        failQueries = false;
+        lastSql = null;
+        lastParameters.clear();
+        rows = new ArrayList<>();
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        connectionsOpened.incrementAndGet();
+        boolean[] closed = new boolean[1];
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    lastSql = (String) args[0];
+                    lastParameters.clear();
+                    return statement();
+                case "close":
+                    if (!closed[0]) {
+                        closed[0] = true;
+                        connectionsClosed.incrementAndGet();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed[0];
+                case "isValid":
+                    return !closed[0];
+                case "getCatalog":
+                    return "fake";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static PreparedStatement statement() {
+        return proxy(PreparedStatement.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "executeQuery":
+                    if (failQueries) {
+                        throw new SQLException("database is down");
+                    }
+                    return resultSet(rows);
+                case "setString":
+                    lastParameters.add((String) args[1]);
+                    return null;
+                case "close":
+                    statementsClosed.incrementAndGet();
+                    if (failStatementClose) {
+                        throw new SQLException("statement close failed");
+                    }
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static ResultSet resultSet(List<Map<String, Object>> rows) {
+        int[] row = {-1};
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    return ++row[0] < rows.size();
+                case "close":
+                    resultSetsClosed.incrementAndGet();
+                    return null;
+                case "getString":
+                case "getInt":
+                case "getTimestamp":
+                    Object value = args[0] instanceof String ? rows.get(row[0]).get(args[0]) : null;
+                    return value == null ? defaultValue(method.getReturnType()) : value;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,164 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JdbcConnectionPoolTests {
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    @Before
+    public void resetDriver() {
+        FakeJdbc.reset();
+    }
+
+    /**
+     * Pools are node level and keyed by url, user and password, so every test gets its own url
+     */
+    private static String newUrl() {
+        return FakeJdbc.URL + "db" + databases.incrementAndGet();
+    }
+
+    @Test
+    public void testReleasedConnectionIsReused() throws Exception {
+        JdbcConnectionPool pool = JdbcConnectionPool.acquire(newUrl(), "user", "pass", 2, 60_000);
+        Connection first = pool.borrow();
+        assertEquals(1L, (long) pool.stats().get("active"));
+        pool.release(first);
+        assertEquals(0L, (long) pool.stats().get("active"));
+        assertEquals(1L, (long) pool.stats().get("idle"));
+
+        assertSame(first, pool.borrow());
+        assertEquals(1, FakeJdbc.connectionsOpened.get());
+        assertEquals(2L, (long) pool.stats().get("borrowed"));
+    }
+
+    @Test
+    public void testBorrowsUpToMaxTotal() throws Exception {
+        JdbcConnectionPool pool = JdbcConnectionPool.acquire(newUrl(), "user", "pass", 2, 60_000);
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+        assertEquals(2L, (long) pool.stats().get("active"));
+        assertEquals(2, FakeJdbc.connectionsOpened.get());
+        pool.release(first);
+        pool.release(second);
+        assertEquals(0L, (long) pool.stats().get("active"));
+        assertEquals(2L, (long) pool.stats().get("idle"));
+    }
+
+    @Test
+    public void testClosedConnectionIsNotPooled() throws Exception {
+        JdbcConnectionPool pool = JdbcConnectionPool.acquire(newUrl(), "user", "pass", 1, 60_000);
+        Connection connection = pool.borrow();
+        connection.close();
+        pool.release(connection);
+        assertEquals(0L, (long) pool.stats().get("active"));
+        assertEquals(0L, (long) pool.stats().get("idle"));
+        assertEquals(1L, (long) pool.stats().get("destroyed"));
+
+        Connection next = pool.borrow();
+        assertFalse(next.isClosed());
+        assertEquals(2, FakeJdbc.connectionsOpened.get());
+    }
+
+    @Test
+    public void testIdleConnectionsTimeOut() throws Exception {
+        JdbcConnectionPool pool = JdbcConnectionPool.acquire(newUrl(), "user", "pass", 1, 0);
+        Connection connection = pool.borrow();
+        pool.release(connection);
+        // evicted right away with an idle timeout of 0
+        assertTrue(connection.isClosed());
+        assertEquals(0L, (long) pool.stats().get("idle"));
+        pool.release(pool.borrow());
+        assertEquals(2, FakeJdbc.connectionsOpened.get());
+    }
+
+    @Test
+    public void testFailingStatementCloseStillReleasesConnection() throws Exception {
+        String url = newUrl();
+        SynonymDb db = new SynonymDb(null, null, true, false, "", url, "user", "pass", "synonym",
+                "goods", "inline", true, 1, 60, DbVersionProbe.MAX_UPDATE_TIME, null, false);
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", 1);
+        row.put("type", "goods");
+        row.put("status", 1);
+        row.put("words", "a,b");
+        row.put("update_time", new Timestamp(1000));
+        FakeJdbc.rows.add(row);
+        FakeJdbc.failStatementClose = true;
+
+        JdbcConnectionPool pool = JdbcConnectionPool.acquire(url, "user", "pass", 1, 60_000);
+        for (int i = 0; i < 3; i++) {
+            // a leaked permit would time out the next borrow of this single connection pool
+            SynonymRuleSet rules = new SynonymRuleSet(false);
+            assertTrue(db.loadDelta(rules));
+            assertEquals(0L, (long) pool.stats().get("active"));
+        }
+        assertEquals(3, FakeJdbc.statementsClosed.get());
+        assertEquals(3, FakeJdbc.resultSetsClosed.get());
+    }
+
+    @Test
+    public void testPasswordIsPartOfTheKey() {
+        String url = newUrl();
+        JdbcConnectionPool first = JdbcConnectionPool.acquire(url, "user", "old", 1, 60_000);
+        assertSame(first, JdbcConnectionPool.acquire(url, "user", "old", 1, 60_000));
+        assertNotSame(first, JdbcConnectionPool.acquire(url, "user", "new", 1, 60_000));
+    }
+
+    @Test
+    public void testLastReleaseClosesThePool() throws Exception {
+        String url = newUrl();
+        JdbcConnectionPool pool = JdbcConnectionPool.acquire(url, "user", "pass", 2, 60_000);
+        JdbcConnectionPool.acquire(url, "user", "pass", 2, 60_000);
+        Connection idle = pool.borrow();
+        Connection active = pool.borrow();
+        pool.release(idle);
+
+        pool.release();
+        assertFalse(idle.isClosed());
+        pool.release();
+        assertTrue(idle.isClosed());
+        assertFalse(JdbcConnectionPool.allStats().containsKey(url + "|user"));
+        // a connection still borrowed is closed when it comes back
+        pool.release(active);
+        assertTrue(active.isClosed());
+        assertNotSame(pool, JdbcConnectionPool.acquire(url, "user", "pass", 2, 60_000));
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvictedWithoutBorrowing() throws Exception {
+        JdbcConnectionPool pool = JdbcConnectionPool.acquire(newUrl(), "user", "pass", 1, 50);
+        Connection connection = pool.borrow();
+        pool.release(connection);
+        assertFalse(connection.isClosed());
+        Thread.sleep(100);
+        JdbcConnectionPool.evictAllIdle();
+        assertTrue(connection.isClosed());
+        assertEquals(0L, (long) pool.stats().get("idle"));
+    }
+
+    @Test
+    public void testClosingTheSourceReleasesThePool() throws Exception {
+        String url = newUrl();
+        SynonymDb db = new SynonymDb(null, null, true, false, "", url, "user", "pass", "synonym",
+                "goods", "inline", true, 1, 60, DbVersionProbe.MAX_UPDATE_TIME, null, false);
+        db.loadDelta(new SynonymRuleSet(false));
+        assertTrue(JdbcConnectionPool.allStats().containsKey(url + "|user"));
+        db.close();
+        assertFalse(JdbcConnectionPool.allStats().containsKey(url + "|user"));
+        assertEquals(FakeJdbc.connectionsOpened.get(), FakeJdbc.connectionsClosed.get());
+    }
+}
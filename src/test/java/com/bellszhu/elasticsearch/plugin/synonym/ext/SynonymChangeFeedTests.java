@@ -0,0 +1,85 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SynonymChangeFeedTests {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Environment env;
+    private Path changes;
+
+    @Before
+    public void createEnvironment() throws IOException {
+        FakeJdbc.reset();
+        Path home = tmp.newFolder().toPath();
+        env = new Environment(Settings.builder().put("path.home", home.toString()).build(), null);
+        Files.createDirectories(env.configFile());
+        changes = env.configFile().resolve("changes.json");
+        Files.createFile(changes);
+    }
+
+    /**
+     * Only the first subscriber of a source is polled by the monitor; the others
+     * must still see every change when they are rebuilt.
+     */
+    @Test
+    public void testUnpolledFeedCatchesUpOnRead() throws IOException {
+        SynonymChangeFeed probe = newFeed();
+        SynonymChangeFeed other = newFeed();
+        assertEquals(Collections.emptyList(), lines(probe));
+        assertEquals(Collections.emptyList(), lines(other));
+
+        append("{\"op\": \"insert\", \"id\": 1, \"type\": \"goods\", \"status\": 1, \"words\": \"a,b\"}");
+        assertTrue(probe.isNeedReloadSynonymMap());
+        assertEquals(Collections.singletonList("a,b"), lines(probe));
+        assertEquals(Collections.singletonList("a,b"), lines(other));
+
+        append("{\"op\": \"delete\", \"id\": 1}");
+        assertEquals(Collections.emptyList(), lines(other));
+        // what was read is not reported as a change again
+        assertFalse(other.isNeedReloadSynonymMap());
+        probe.close();
+        other.close();
+    }
+
+    private SynonymChangeFeed newFeed() {
+        return new SynonymChangeFeed(env, null, true, false, "", FakeJdbc.URL + "feed", "user", "pass",
+                "synonym", "goods", "inline", 1, 60, "changes.json", 1);
+    }
+
+    private void append(String line) throws IOException {
+        Files.write(changes, (line + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private static List<String> lines(SynonymChangeFeed feed) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (Reader reader = feed.getReader(); BufferedReader in = new BufferedReader(reader)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
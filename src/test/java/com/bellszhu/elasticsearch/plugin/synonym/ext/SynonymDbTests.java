@@ -0,0 +1,136 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SynonymDbTests {
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    @Before
+    public void resetDriver() {
+        FakeJdbc.reset();
+    }
+
+    @Test
+    public void testDeltaQueryIsARangeOnUpdateTime() throws IOException {
+        SynonymDb db = deltaDb();
+        lines(db);
+        assertEquals("select * from synonym where update_time >= ? order by update_time, id", FakeJdbc.lastSql);
+    }
+
+    @Test
+    public void testRowMovedToAnotherTypeIsDropped() throws IOException {
+        FakeJdbc.rows = new ArrayList<>(Arrays.asList(
+                row(1, "goods", "a,b", 10), row(2, "goods", "c,d", 10), row(3, "books", "e,f", 10)));
+        SynonymDb db = deltaDb();
+        assertEquals(Arrays.asList("a,b", "c,d"), sorted(lines(db)));
+
+        FakeJdbc.rows = new ArrayList<>(Collections.singletonList(row(2, "books", "c,d", 20)));
+        assertTrue(db.isNeedReloadSynonymMap());
+        assertEquals(Collections.singletonList("a,b"), lines(db));
+    }
+
+    @Test
+    public void testFailedFirstLoadFailsTheRebuild() throws IOException {
+        FakeJdbc.rows = new ArrayList<>(Collections.singletonList(row(1, "goods", "a,b", 10)));
+        FakeJdbc.failQueries = true;
+        SynonymDb db = deltaDb();
+        try {
+            lines(db);
+            fail("an outage must not build an empty map");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("synonym"));
+        }
+        // polls during the outage report no change
+        assertFalse(db.isNeedReloadSynonymMap());
+
+        FakeJdbc.failQueries = false;
+        assertEquals(Collections.singletonList("a,b"), lines(db));
+    }
+
+    @Test
+    public void testFailedDeltaKeepsTheRules() throws IOException {
+        FakeJdbc.rows = new ArrayList<>(Collections.singletonList(row(1, "goods", "a,b", 10)));
+        SynonymDb db = deltaDb();
+        assertEquals(Collections.singletonList("a,b"), lines(db));
+
+        FakeJdbc.failQueries = true;
+        assertFalse(db.isNeedReloadSynonymMap());
+        try {
+            lines(db);
+            fail("a failed delta must fail the rebuild");
+        } catch (IllegalStateException e) {
+            // the last map is kept
+        }
+
+        FakeJdbc.failQueries = false;
+        FakeJdbc.rows = new ArrayList<>(Collections.singletonList(row(2, "goods", "c,d", 20)));
+        assertTrue(db.isNeedReloadSynonymMap());
+        assertEquals(Arrays.asList("a,b", "c,d"), sorted(lines(db)));
+    }
+
+    @Test
+    public void testTypeIsBound() throws IOException {
+        String type = "goods' or '1'='1";
+        SynonymDb db = new SynonymDb(null, null, true, false, "", FakeJdbc.URL + "full" + databases.incrementAndGet(),
+                "user", "pass", "synonym", type, "inline", false, 1, 60, null, null, false);
+        db.getVersion();
+        assertEquals("select max(update_time) as update_time, count(*) as total from synonym where status = 1"
+                + " and type = ?", FakeJdbc.lastSql);
+        assertEquals(Collections.singletonList(type), FakeJdbc.lastParameters);
+
+        lines(db);
+        assertEquals("select * from synonym where status = 1 and type = ?", FakeJdbc.lastSql);
+        assertEquals(Collections.singletonList(type), FakeJdbc.lastParameters);
+        db.close();
+    }
+
+    private static SynonymDb deltaDb() {
+        return new SynonymDb(null, null, true, false, "", FakeJdbc.URL + "delta" + databases.incrementAndGet(),
+                "user", "pass", "synonym", "goods", "inline", true, 1, 60, null, null, false);
+    }
+
+    private static Map<String, Object> row(int id, String type, String words, long updateTime) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("type", type);
+        row.put("status", 1);
+        row.put("words", words);
+        row.put("update_time", new Timestamp(updateTime));
+        return row;
+    }
+
+    private static List<String> lines(SynonymDb db) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (Reader reader = db.getReader(); BufferedReader in = new BufferedReader(reader)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> sorted(List<String> lines) {
+        List<String> sorted = new ArrayList<>(lines);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
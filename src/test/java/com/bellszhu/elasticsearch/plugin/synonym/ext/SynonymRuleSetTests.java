@@ -0,0 +1,68 @@
+package com.bellszhu.elasticsearch.plugin.synonym.ext;
+
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SynonymRuleSetTests {
+
+    @Test
+    public void testInlineRulesAreReplacedAndRemovedById() {
+        SynonymRuleSet rules = new SynonymRuleSet(false);
+        assertTrue(rules.apply(1, true, new String[]{"a,b"}, new Timestamp(10)));
+        assertTrue(rules.apply(2, true, new String[]{"c,d"}, new Timestamp(20)));
+        assertEquals(2, rules.size());
+
+        // the same content again is no change
+        assertFalse(rules.apply(1, true, new String[]{"a,b"}, new Timestamp(30)));
+        assertTrue(rules.apply(1, true, new String[]{"a,e"}, new Timestamp(40)));
+        assertEquals(Arrays.asList("a,e", "c,d"), sorted(rules.lines()));
+
+        assertTrue(rules.apply(2, false, new String[]{"c,d"}, new Timestamp(50)));
+        assertEquals(Collections.singletonList("a,e"), rules.lines());
+        // removing what is not there is no change
+        assertFalse(rules.apply(3, false, null, new Timestamp(60)));
+        assertEquals(1, rules.size());
+    }
+
+    @Test
+    public void testWatermarkOnlyMovesForward() {
+        SynonymRuleSet rules = new SynonymRuleSet(false);
+        rules.apply(5, true, new String[]{"a,b"}, new Timestamp(100));
+        rules.apply(3, true, new String[]{"c,d"}, new Timestamp(50));
+        rules.apply(4, true, new String[]{"e,f"}, null);
+        assertEquals(new Timestamp(100), rules.getLastUpdateTime());
+
+        // deletes move the watermark too, so they are not fetched again
+        rules.apply(7, false, null, new Timestamp(200));
+        assertEquals(new Timestamp(200), rules.getLastUpdateTime());
+    }
+
+    @Test
+    public void testMultiLineRulesAreMergedByMainWord() {
+        SynonymRuleSet rules = new SynonymRuleSet(true);
+        rules.apply(1, true, new String[]{"car", "car"}, new Timestamp(1));
+        rules.apply(2, true, new String[]{"car", "auto"}, new Timestamp(1));
+        rules.apply(3, true, new String[]{"tv", "television"}, new Timestamp(1));
+        List<String> lines = sorted(rules.lines());
+        assertEquals(2, lines.size());
+        assertEquals(Arrays.asList("auto", "car"), sorted(Arrays.asList(lines.get(0).split(","))));
+        assertEquals("television", lines.get(1));
+
+        rules.apply(2, false, null, new Timestamp(2));
+        assertEquals(Arrays.asList("car", "television"), sorted(rules.lines()));
+    }
+
+    private static List<String> sorted(List<String> lines) {
+        String[] array = lines.toArray(new String[0]);
+        Arrays.sort(array);
+        return Arrays.asList(array);
+    }
+}